@@ -0,0 +1,69 @@
+package engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Connect4Model;
+import model.PositionCorpus;
+
+/**
+ * Benchmarks of the computer move path: a fixed depth search of every position
+ * in the PositionCorpus, with and without a transposition table. The table is
+ * cleared before each pass so every pass does the same work.
+ *
+ * @author Todd Noecker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EngineBenchmark {
+
+	@Param({ "6", "8", "10" })
+	public int depth;
+
+	@Param({ "0", "16" })
+	public int tableMegabytes;
+
+	private Connect4Model[] corpus;
+	private int[] colors;
+	private Connect4Engine engine;
+
+	@Setup
+	public void setup() {
+		corpus = PositionCorpus.loadAll();
+		colors = new int[corpus.length];
+		for (int index = 0; index < corpus.length; index++) {
+			colors[index] = PositionCorpus.colorToMove(PositionCorpus.POSITIONS[index]);
+		}
+		engine = new Connect4Engine(depth, 0);
+		if (tableMegabytes > 0) {
+			engine.setTranspositionTable(new TranspositionTable(tableMegabytes));
+		}
+	}
+
+	@Benchmark
+	public void bestMove(Blackhole hole) {
+		TranspositionTable table = engine.getTranspositionTable();
+		if (table != null) {
+			table.clear();
+		}
+		for (int index = 0; index < corpus.length; index++) {
+			hole.consume(engine.bestMove(corpus[index], colors[index]));
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package engine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Connect4Model;
+import model.PositionCorpus;
+
+/**
+ * Benchmarks of the Evaluator in evaluations per second. The incremental
+ * benchmark plays each column of a PositionCorpus position, reads the score and
+ * takes the move back, which is what the search does at a leaf. The rescan
+ * benchmark loads a position from scratch for comparison, and the search
+ * benchmarks time a fixed depth search of the corpus with and without leaf
+ * evaluation.
+ *
+ * @author Todd Noecker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluationBenchmark {
+
+	// Moves tried per position by the incremental benchmark, one per column.
+	private static final int COLUMNS = Connect4Model.DEFAULT_COLUMNS;
+
+	@Param({ "8" })
+	public int depth;
+
+	private Connect4Model[] corpus;
+	private int[] colors;
+	private Evaluator[] loaded;
+	private Evaluator evaluator;
+	private Connect4Engine engine;
+	private int cursor;
+
+	@Setup
+	public void setup() {
+		corpus = PositionCorpus.loadAll();
+		colors = new int[corpus.length];
+		loaded = new Evaluator[corpus.length];
+		for (int index = 0; index < corpus.length; index++) {
+			colors[index] = PositionCorpus.colorToMove(PositionCorpus.POSITIONS[index]);
+			loaded[index] = new Evaluator(Connect4Model.DEFAULT_ROWS, COLUMNS, Connect4Model.DEFAULT_WIN_LENGTH);
+			loaded[index].load(corpus[index]);
+		}
+		evaluator = new Evaluator(Connect4Model.DEFAULT_ROWS, COLUMNS, Connect4Model.DEFAULT_WIN_LENGTH);
+		engine = new Connect4Engine(depth, 0);
+	}
+
+	/**
+	 * Plays, scores and takes back each column of the next position. Full
+	 * columns still count as an evaluation.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(COLUMNS)
+	public void incremental(Blackhole hole) {
+		int index = next();
+		Connect4Model position = corpus[index];
+		Evaluator scores = loaded[index];
+		int color = colors[index];
+		for (int col = 0; col < COLUMNS; col++) {
+			int height = position.getHeight(col);
+			if (height == Connect4Model.DEFAULT_ROWS) {
+				hole.consume(scores.evaluate(color));
+				continue;
+			}
+			scores.play(col, height, color);
+			hole.consume(scores.evaluate(3 - color));
+			scores.undo(col, height, color);
+		}
+	}
+
+	/**
+	 * Scores the next position by loading it from scratch.
+	 */
+	@Benchmark
+	public int rescan() {
+		int index = next();
+		evaluator.load(corpus[index]);
+		return evaluator.evaluate(colors[index]);
+	}
+
+	/**
+	 * Searches the whole corpus, so scores are passes per second.
+	 */
+	@Benchmark
+	public void searchEvaluated(Blackhole hole) {
+		engine.setEvaluation(true);
+		for (int index = 0; index < corpus.length; index++) {
+			hole.consume(engine.bestMove(corpus[index], colors[index]));
+		}
+	}
+
+	@Benchmark
+	public void searchUnevaluated(Blackhole hole) {
+		engine.setEvaluation(false);
+		for (int index = 0; index < corpus.length; index++) {
+			hole.consume(engine.bestMove(corpus[index], colors[index]));
+		}
+	}
+
+	/**
+	 * Returns the index of the next corpus position, round and round.
+	 */
+	private int next() {
+		cursor = cursor + 1 == corpus.length ? 0 : cursor + 1;
+		return cursor;
+	}
+}
@@ -0,0 +1,110 @@
+package model;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import engine.Connect4Engine;
+
+/**
+ * Benchmarks comparing board sizes, given as ROWSxCOLUMNSxWINLENGTH. Each size
+ * is filled to a third with the same seeded random moves, avoiding cells that
+ * would win for either color, and the operations a search makes on every node
+ * are timed on it. A fixed depth search is timed from the empty board, where
+ * no size has a quick answer. The 6x7 and 7x8 boards fit in one word, 9x9
+ * takes two and 15x15 four.
+ *
+ * @author Todd Noecker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardSizeBenchmark {
+
+	@Param({ "6x7x4", "7x8x4", "9x9x4", "15x15x5" })
+	public String board;
+
+	private Connect4Model empty;
+	private Connect4Model position;
+	private int color;
+	private int lastRow;
+	private int lastCol;
+	private int freeCol;
+	private Connect4Engine engine;
+
+	@Setup
+	public void setup() {
+		String[] size = board.split("x");
+		empty = new Connect4Model(Integer.parseInt(size[0]), Integer.parseInt(size[1]), Integer.parseInt(size[2]));
+		position = empty.copy();
+		int width = position.getYLEN();
+		Random random = new Random(42);
+		color = 1;
+		for (int move = 0; move < position.getXLEN() * width / 3; move++) {
+			int col = random.nextInt(width);
+			for (int tries = 0; tries < width && (position.getRowPos(col) < 0 || position.isWinningMove(col, color)
+					|| position.isWinningMove(col, 3 - color)); tries++) {
+				col = (col + 1) % width;
+			}
+			lastRow = position.getRowPos(col);
+			lastCol = col;
+			position.move(col, color);
+			color = 3 - color;
+		}
+		freeCol = width / 2;
+		while (position.getRowPos(freeCol) < 0) {
+			freeCol = (freeCol + 1) % width;
+		}
+		engine = new Connect4Engine(6, 0);
+	}
+
+	@Benchmark
+	public Connect4Model copyAndMove() {
+		Connect4Model child = position.copy();
+		child.move(freeCol, color);
+		return child;
+	}
+
+	@Benchmark
+	public void isWinningMove(Blackhole hole) {
+		for (int col = 0; col < position.getYLEN(); col++) {
+			hole.consume(position.isWinningMove(col, color));
+		}
+	}
+
+	@Benchmark
+	public int lastMoveWinCheck() {
+		return position.checkForWin(lastRow, lastCol, 3 - color);
+	}
+
+	@Benchmark
+	public int checkForWin() {
+		return position.checkForWin(3 - color);
+	}
+
+	@Benchmark
+	public long positionKey() {
+		return position.getPositionKey();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int search() {
+		return engine.bestMove(empty, 1);
+	}
+}
@@ -0,0 +1,115 @@
+package model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the Connect4Model operations used on every move: making moves,
+ * the full board win check and each of its three scanners, the last move win
+ * check and the full board test. The checks run over every position of the
+ * PositionCorpus, so scores are per corpus pass.
+ *
+ * @author Todd Noecker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+	private Connect4Model[] corpus;
+	private int[] lastRow;
+	private int[] lastCol;
+	private int[] lastColor;
+	private Connect4Model full;
+
+	@Setup
+	public void setup() {
+		corpus = PositionCorpus.loadAll();
+		lastRow = new int[corpus.length];
+		lastCol = new int[corpus.length];
+		lastColor = new int[corpus.length];
+		for (int index = 0; index < corpus.length; index++) {
+			String moves = PositionCorpus.POSITIONS[index];
+			if (moves.isEmpty()) {
+				continue;
+			}
+			int col = moves.charAt(moves.length() - 1) - '0';
+			lastCol[index] = col;
+			lastRow[index] = corpus[index].getRowPos(col) + 1;
+			lastColor[index] = moves.length() % 2 == 1 ? 1 : 2;
+		}
+		full = PositionCorpus.load(PositionCorpus.DRAWN_GAME);
+	}
+
+	/**
+	 * Plays a short game onto a new model.
+	 */
+	@Benchmark
+	public Connect4Model move() {
+		Connect4Model model = new Connect4Model();
+		String moves = PositionCorpus.FULL_GAME;
+		int color = 1;
+		for (int index = 0; index < moves.length(); index++) {
+			model.move(moves.charAt(index) - '0', color);
+			color = 3 - color;
+		}
+		return model;
+	}
+
+	@Benchmark
+	public void checkForWin(Blackhole hole) {
+		for (Connect4Model model : corpus) {
+			hole.consume(model.checkForWin(1));
+		}
+	}
+
+	@Benchmark
+	public void horWinCheck(Blackhole hole) {
+		for (Connect4Model model : corpus) {
+			hole.consume(model.horWinCheck(1));
+		}
+	}
+
+	@Benchmark
+	public void vertWinCheck(Blackhole hole) {
+		for (Connect4Model model : corpus) {
+			hole.consume(model.vertWinCheck(1));
+		}
+	}
+
+	@Benchmark
+	public void diagonalChecks(Blackhole hole) {
+		for (Connect4Model model : corpus) {
+			hole.consume(model.diagonalChecks(1));
+		}
+	}
+
+	@Benchmark
+	public void lastMoveWinCheck(Blackhole hole) {
+		for (int index = 0; index < corpus.length; index++) {
+			hole.consume(corpus[index].checkForWin(lastRow[index], lastCol[index], lastColor[index]));
+		}
+	}
+
+	@Benchmark
+	public void isBoardFull(Blackhole hole) {
+		for (Connect4Model model : corpus) {
+			hole.consume(model.isBoardFull());
+		}
+		hole.consume(full.isBoardFull());
+	}
+}
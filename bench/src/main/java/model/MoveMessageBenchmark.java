@@ -0,0 +1,77 @@
+package model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import controller.MoveCodec;
+
+/**
+ * Benchmarks of sending a Connect4MoveMessage through Java object
+ * serialization, including the stream header each new stream writes, against
+ * the binary MoveCodec frames the controller sends by default.
+ *
+ * @author Todd Noecker
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveMessageBenchmark {
+
+	private Connect4MoveMessage message;
+	private byte[] serialized;
+	private byte[] frame = new byte[MoveCodec.FRAME_BYTES];
+	private int sequence;
+
+	@Setup
+	public void setup() throws IOException {
+		message = new Connect4MoveMessage(3, 5, Connect4MoveMessage.RED);
+		serialized = serialize();
+		MoveCodec.encode(frame, 0, 1, 3, Connect4MoveMessage.RED);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(message);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return in.readObject();
+		}
+	}
+
+	@Benchmark
+	public byte[] binaryEncode() {
+		MoveCodec.encode(frame, 0, sequence++, message.getRow(), message.getColor());
+		return frame;
+	}
+
+	@Benchmark
+	public int binaryDecode() throws ProtocolException {
+		return MoveCodec.decode(frame, 0);
+	}
+}
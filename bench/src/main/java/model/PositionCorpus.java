@@ -0,0 +1,74 @@
+package model;
+
+/**
+ * A fixed set of positions used by the benchmarks, so results from different
+ * versions measure the same work. Each position is a string of columns played
+ * in turn, color 1 first, and every one is a game still being played.
+ *
+ * @author Todd Noecker
+ */
+public final class PositionCorpus {
+
+	public static final String[] POSITIONS = { "", "3", "33", "3234", "332244", "6600026", "33332222",
+			"2345432", "1441243550", "01234560123456", "1205331000", "42526565504615", "3342241156",
+			"444433332222", "6460362001", "21350064" };
+
+	/**
+	 * A full game that ends with a win for color 1 on the last move.
+	 */
+	public static final String FULL_GAME = "3322110";
+
+	/**
+	 * A game that fills the board without either color winning.
+	 */
+	public static final String DRAWN_GAME = "146660203633536103043506522512202545444111";
+
+	private PositionCorpus() {
+	}
+
+	/**
+	 * Plays a move string onto a new model. The last move may win the game.
+	 *
+	 * @param moves columns played in turn
+	 * @return the model after the moves
+	 * @throws IllegalArgumentException if a move plays a full column or follows
+	 *                                  a win, so a bad position fails the setup
+	 *                                  instead of skewing a benchmark
+	 */
+	public static Connect4Model load(String moves) {
+		Connect4Model model = new Connect4Model();
+		int color = 1;
+		boolean won = false;
+		for (int index = 0; index < moves.length(); index++) {
+			int col = moves.charAt(index) - '0';
+			if (won) {
+				throw new IllegalArgumentException("\"" + moves + "\" keeps playing after a win at move " + index);
+			}
+			if (col < 0 || col >= model.getYLEN() || model.getRowPos(col) < 0) {
+				throw new IllegalArgumentException("\"" + moves + "\" plays a full column at move " + (index + 1));
+			}
+			won = model.isWinningMove(col, color);
+			model.move(col, color);
+			color = 3 - color;
+		}
+		return model;
+	}
+
+	/**
+	 * Returns the color to move after a move string.
+	 */
+	public static int colorToMove(String moves) {
+		return moves.length() % 2 == 0 ? 1 : 2;
+	}
+
+	/**
+	 * Loads every position of the corpus.
+	 */
+	public static Connect4Model[] loadAll() {
+		Connect4Model[] models = new Connect4Model[POSITIONS.length];
+		for (int index = 0; index < models.length; index++) {
+			models[index] = load(POSITIONS[index]);
+		}
+		return models;
+	}
+}
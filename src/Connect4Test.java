@@ -1,9 +1,50 @@
 import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.jupiter.api.Test;
 
+import controller.Connect4Connection;
 import controller.Connect4Controller;
+import controller.Connect4Server;
+import controller.Connect4ThreadedServer;
+import controller.Connect4Tournament;
+import controller.ConnectionExecutors;
+import controller.LatencyHistogram;
+import controller.MoveCodec;
+import controller.WireFormat;
+import engine.Connect4Engine;
+import engine.EndgameTable;
+import engine.EndgameTableGenerator;
+import engine.Evaluator;
+import engine.MonteCarloSearch;
+import engine.OpeningBook;
+import engine.OpeningBookGenerator;
+import engine.ParallelSearch;
+import engine.Ponderer;
+import engine.TranspositionTable;
 import model.Connect4Model;
 import model.Connect4MoveMessage;
+import model.GameRecordStore;
+import model.MoveListener;
+import view.MoveUpdateQueue;
 
 public class Connect4Test {
 
@@ -149,4 +190,947 @@ public class Connect4Test {
 			cont.computerMove();
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	void moveUpdateQueue() throws InterruptedException {
+		Connect4Model test = new Connect4Model();
+		MoveUpdateQueue updates = new MoveUpdateQueue(test);
+		test.addMoveListener(updates);
+		// Color 1 stacks four in column 0, then moves after the win are ignored.
+		for (int move = 0; move < 7; move++) {
+			test.move(move % 2, move % 2 + 1);
+		}
+		test.move(3, 2);
+		test.move(4, 1);
+		List<Connect4MoveMessage> painted = new ArrayList<>();
+		int outcome = 0;
+		for (int frame = 0; frame < 500 && outcome == 0; frame++) {
+			outcome = updates.drain(painted::add);
+			Thread.sleep(2);
+		}
+		outcome = updates.drain(painted::add);
+		assertTrue(outcome == 1);
+		assertTrue(painted.size() == 7);
+		assertTrue(updates.getMovesDrained() == 7 && updates.getBatches() >= 1);
+		for (int move = 0; move < 7; move++) {
+			assertTrue(painted.get(move).getRow() == move % 2);
+			assertTrue(painted.get(move).getColumn() == 5 - move / 2);
+		}
+		assertTrue(updates.getFinalMove() == painted.get(6));
+		updates.close();
+
+		// A full board without a win.
+		Connect4Model tiny = new Connect4Model(2, 3, 3);
+		MoveUpdateQueue full = new MoveUpdateQueue(tiny);
+		tiny.addMoveListener(full);
+		assertTrue(full.drain(painted::add) == 0 && full.getFinalMove() == null);
+		for (int col = 0; col < 3; col++) {
+			tiny.move(col, col % 2 + 1);
+			tiny.move(col, 2 - col % 2);
+		}
+		outcome = 0;
+		for (int frame = 0; frame < 500 && outcome == 0; frame++) {
+			outcome = full.drain((msg) -> {
+			});
+			Thread.sleep(2);
+		}
+		assertTrue(outcome == 3);
+		assertTrue(full.getMovesDrained() == 6);
+		full.close();
+	}
+
+	@Test
+	void bitboardCopy() {
+		Connect4Model test = new Connect4Model();
+		test.move(3, 1);
+		test.move(3, 2);
+		test.move(4, 1);
+		Connect4Model copy = test.copy();
+		copy.move(3, 2);
+		assertTrue(test.getSlot(5, 3) == 1);
+		assertTrue(test.getSlot(4, 3) == 2);
+		assertTrue(test.getSlot(5, 4) == 1);
+		assertTrue(test.getSlot(3, 3) == 0);
+		assertTrue(copy.getSlot(3, 3) == 2);
+		assertTrue(test.getRowPos(3) == 3);
+		assertTrue(copy.getRowPos(3) == 2);
+		for (int index = 0; index < 6; index++) {
+			copy.move(6, 1);
+		}
+		assertTrue(copy.getRowPos(6) == -1);
+		copy.move(6, 2);
+		assertTrue(copy.getHeight(6) == 6);
+		assertTrue(copy.getSlot(0, 6) == 1);
+	}
+
+	@Test
+	void lastMoveWin() {
+		Connect4Model test = new Connect4Model();
+		// Diagonal rising to the right, finished in the middle of the line.
+		test.move(0, 1);
+		test.move(1, 2);
+		test.move(1, 1);
+		test.move(2, 2);
+		test.move(2, 2);
+		test.move(2, 1);
+		test.move(3, 2);
+		test.move(3, 2);
+		test.move(3, 2);
+		test.move(3, 1);
+		assertTrue(test.checkForWin(2, 3, 1) == 1);
+		assertTrue(test.checkForWin(5, 0, 1) == 1);
+		assertTrue(test.checkForWin(4, 2, 2) == 0);
+
+		Connect4Model hor = new Connect4Model();
+		hor.move(4, 2);
+		hor.move(5, 2);
+		hor.move(6, 2);
+		assertTrue(hor.checkForWin(5, 6, 2) == 0);
+		hor.move(3, 2);
+		assertTrue(hor.checkForWin(5, 3, 2) == 2);
+
+		// A column of three next to a piece in the next column must not wrap.
+		Connect4Model vert = new Connect4Model();
+		vert.move(0, 1);
+		vert.move(0, 1);
+		vert.move(0, 1);
+		vert.move(1, 1);
+		assertTrue(vert.checkForWin(5, 1, 1) == 0);
+		vert.move(0, 1);
+		assertTrue(vert.checkForWin(2, 0, 1) == 1);
+	}
+
+	@Test
+	void playAndUndo() {
+		for (Connect4Model test : new Connect4Model[] { new Connect4Model(), new Connect4Model(15, 15, 5) }) {
+			int[] heard = new int[1];
+			test.addMoveListener((x, y, color) -> heard[0]++);
+			test.move(test.getYLEN() - 1, 1);
+			long key = test.getPositionKey();
+			int[] columns = { 0, test.getYLEN() - 1, 3, 3, 0 };
+			for (int index = 0; index < columns.length; index++) {
+				test.play(columns[index], index % 2 + 1);
+			}
+			assertTrue(test.getMoveCount() == 6 && test.getSlot(test.getXLEN() - 2, test.getYLEN() - 1) == 2);
+			for (int index = columns.length - 1; index >= 0; index--) {
+				test.undo(columns[index]);
+			}
+			// Only move told the listener, and the board is back where it was.
+			assertTrue(heard[0] == 1);
+			assertTrue(test.getPositionKey() == key && test.getMoveCount() == 1);
+			assertTrue(test.getHeight(0) == 0 && test.getHeight(3) == 0 && test.getHeight(test.getYLEN() - 1) == 1);
+			assertTrue(test.getSlot(test.getXLEN() - 1, test.getYLEN() - 1) == 1);
+			assertThrows(IllegalStateException.class, () -> test.undo(0));
+		}
+
+		// The search plays on its own copy and leaves the model untouched.
+		Connect4Model game = new Connect4Model();
+		game.move(3, 1);
+		long key = game.getPositionKey();
+		Connect4Engine engine = new Connect4Engine(8, 0);
+		engine.bestMove(game, 2);
+		assertTrue(game.getPositionKey() == key && game.getMoveCount() == 1);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		engine.bestMove(game, 2);
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+		// One copy of the model per search, not one per node.
+		assertTrue(engine.getNodes() > 1_000);
+		assertTrue(allocated < 16 * 1024);
+	}
+
+	@Test
+	void boardSizes() {
+		// Connect 5 on 15x15 spans four words and the column bits of several.
+		Connect4Model wide = new Connect4Model(15, 15, 5);
+		assertTrue(wide.getXLEN() == 15 && wide.getYLEN() == 15 && wide.getWinLength() == 5);
+		for (int col = 9; col < 13; col++) {
+			assertFalse(wide.isWinningMove(col + 1, 1) && col < 12);
+			wide.move(col, 1);
+			wide.move(col, 2);
+		}
+		assertTrue(wide.getMoveCount() == 8);
+		assertTrue(wide.isWinningMove(13, 1));
+		assertTrue(wide.isWinningMove(8, 1));
+		assertFalse(wide.isWinningMove(13, 2));
+		Connect4Model before = wide.copy();
+		long key = wide.getPositionKey();
+		wide.move(13, 1);
+		assertTrue(wide.checkForWin(1) == 1);
+		assertTrue(wide.isWinAt(14, 13, 1));
+		assertTrue(wide.checkForWin(14, 11, 1) == 1);
+		assertTrue(wide.checkForWin(13, 11, 2) == 0);
+		assertTrue(before.getSlot(14, 13) == 0 && before.checkForWin(1) == 0);
+		assertTrue(before.getPositionKey() == key && wide.getPositionKey() != key);
+
+		// Swapping two pieces across a word boundary changes the key.
+		Connect4Model left = new Connect4Model(9, 9, 4);
+		Connect4Model right = new Connect4Model(9, 9, 4);
+		left.move(0, 1);
+		left.move(8, 2);
+		right.move(0, 2);
+		right.move(8, 1);
+		assertTrue(left.getPositionKey() != right.getPositionKey());
+
+		// Threats are counted on boards wider than one word as well.
+		Connect4Model threats = new Connect4Model(9, 9, 4);
+		threats.move(3, 1);
+		threats.move(4, 1);
+		assertTrue(threats.countThreatsAfter(5, 1) == 2);
+		assertTrue(threats.countThreatsAfter(8, 1) == 0);
+		assertTrue(threats.getHeight(5) == 0 && threats.getMoveCount() == 2);
+
+		// A diagonal of five climbing from the bottom right.
+		Connect4Model diagonal = new Connect4Model(15, 15, 5);
+		for (int step = 0; step < 5; step++) {
+			for (int fill = 0; fill < step; fill++) {
+				diagonal.move(14 - step, 2);
+			}
+			assertTrue(diagonal.isWinningMove(14 - step, 1) == (step == 4));
+			diagonal.move(14 - step, 1);
+		}
+		assertTrue(diagonal.isWinAt(14, 14, 1) && diagonal.isWinAt(10, 10, 1));
+		assertTrue(diagonal.checkForWin(1) == 1 && diagonal.checkForWin(2) == 0);
+
+		Connect4Model tiny = new Connect4Model(2, 3, 3);
+		for (int col = 0; col < 3; col++) {
+			tiny.move(col, col % 2 + 1);
+			tiny.move(col, 2 - col % 2);
+		}
+		assertTrue(tiny.isBoardFull());
+		assertTrue(tiny.checkForWin(1) == 3 && tiny.checkForWin(2) == 3);
+		assertThrows(IllegalArgumentException.class, () -> new Connect4Model(0, 7, 4));
+		assertThrows(IllegalArgumentException.class, () -> new Connect4Model(6, Connect4Model.MAX_COLUMNS + 1, 4));
+		assertThrows(IllegalArgumentException.class, () -> new Connect4Model(6, 7, 8));
+
+		// The engine sees a win on a board wider than one word.
+		Connect4Model nine = new Connect4Model(9, 9, 4);
+		for (int col = 3; col < 6; col++) {
+			nine.move(col, 1);
+			nine.move(col, 2);
+		}
+		int move = new Connect4Engine(4, 0).bestMove(nine, 1);
+		assertTrue(move == 2 || move == 6);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	void moveListeners() {
+		Connect4Model test = new Connect4Model();
+		assertTrue(test.getMoveListenerCount() == 0);
+		int[] last = new int[4];
+		MoveListener counter = (x, y, color) -> {
+			last[0] = x;
+			last[1] = y;
+			last[2] = color;
+			last[3]++;
+		};
+		test.addMoveListener(counter);
+		List<Connect4MoveMessage> observed = new ArrayList<>();
+		test.addObs((o, arg) -> observed.add((Connect4MoveMessage) arg));
+		assertTrue(test.getMoveListenerCount() == 2);
+
+		test.move(3, 1);
+		test.move(3, 2);
+		assertTrue(last[0] == 4 && last[1] == 3 && last[2] == 2 && last[3] == 2);
+		// Observers still get the column in getRow() and the row in getColumn().
+		assertTrue(observed.size() == 2);
+		assertTrue(observed.get(1).getRow() == 3 && observed.get(1).getColumn() == 4);
+
+		// Copies and full columns report nothing.
+		Connect4Model copy = test.copy();
+		assertTrue(copy.getMoveListenerCount() == 0);
+		copy.move(0, 1);
+		for (int move = 0; move < 6; move++) {
+			test.move(6, 1);
+		}
+		test.move(6, 2);
+		assertTrue(last[3] == 8 && observed.size() == 8);
+
+		assertTrue(test.removeMoveListener(counter));
+		assertFalse(test.removeMoveListener(counter));
+		test.move(0, 1);
+		assertTrue(last[3] == 8 && observed.size() == 9);
+	}
+
+	@Test
+	void moveOrdering() {
+		// Red has 3 and 2 on the bottom row, so playing 1 or 4 makes two threats.
+		Connect4Model test = new Connect4Model();
+		for (int col : new int[] { 3, 3, 2, 2 }) {
+			test.move(col, test.getMoveCount() % 2 + 1);
+		}
+		assertTrue(test.countThreatsAfter(1, 1) == 2 && test.countThreatsAfter(4, 1) == 2);
+		assertTrue(test.countThreatsAfter(6, 1) == 0);
+		Connect4Model above = new Connect4Model();
+		for (int col : new int[] { 3, 3, 2, 2, 4, 4 }) {
+			above.move(col, above.getMoveCount() % 2 + 1);
+		}
+		// Yellow would complete 2, 3, 4 on the second row by playing on top of 1 or 5.
+		assertTrue(above.isWinAbove(1, 2) && above.isWinAbove(5, 2));
+		assertFalse(above.isWinAbove(0, 2) || above.isWinAbove(1, 1));
+
+		// Without a table the score can not depend on the order, only the nodes.
+		Connect4Engine reference = new Connect4Engine(8, 0);
+		reference.setOrdering(0);
+		reference.bestMove(test, 1);
+		int[] orderings = { Connect4Engine.ORDER_CENTER, Connect4Engine.ORDER_CENTER | Connect4Engine.ORDER_KILLERS,
+				Connect4Engine.ORDER_CENTER | Connect4Engine.ORDER_HISTORY, Connect4Engine.DEFAULT_ORDERING,
+				Connect4Engine.ORDER_ALL };
+		long[] nodes = new long[orderings.length];
+		for (int index = 0; index < orderings.length; index++) {
+			Connect4Engine engine = new Connect4Engine(8, 0);
+			engine.setOrdering(orderings[index]);
+			assertTrue(engine.getOrdering() == orderings[index]);
+			engine.bestMove(test, 1);
+			assertTrue(engine.getLastScore() == reference.getLastScore());
+			nodes[index] = engine.getNodes();
+		}
+		// Trying the double threat first finds the win with far fewer nodes.
+		assertTrue(nodes[3] < nodes[0]);
+	}
+
+	@Test
+	void evaluation() {
+		Evaluator evaluator = new Evaluator(6, 7, 4);
+		// 24 vertical, 24 horizontal and 12 of each diagonal.
+		assertTrue(evaluator.getWindowCount() == 69);
+		assertTrue(evaluator.getWindowCount(0, 0) == 3 && evaluator.getWindowCount(3, 0) == 7);
+		assertTrue(evaluator.getWindowCount(3, 2) == 13);
+
+		// Updating move by move agrees with loading the board from scratch.
+		Connect4Model test = new Connect4Model();
+		Evaluator fresh = new Evaluator(6, 7, 4);
+		int[] columns = { 3, 3, 2, 4, 2, 1, 5, 5, 0, 6, 4, 2 };
+		for (int index = 0; index < columns.length; index++) {
+			int color = index % 2 + 1;
+			evaluator.play(columns[index], test.getHeight(columns[index]), color);
+			test.move(columns[index], color);
+			fresh.load(test);
+			assertTrue(evaluator.evaluate(1) == fresh.evaluate(1));
+			assertTrue(evaluator.evaluate(2) == -evaluator.evaluate(1));
+		}
+		for (int index = columns.length - 1; index >= 0; index--) {
+			evaluator.undo(columns[index], test.getHeight(columns[index]) - 1, index % 2 + 1);
+			test.undo(columns[index]);
+		}
+		assertTrue(evaluator.evaluate(1) == 0);
+
+		// Red's open three on the bottom row, an odd row, earns the parity bonus.
+		Connect4Model odd = new Connect4Model();
+		for (int col : new int[] { 0, 6, 1, 6, 2 }) {
+			odd.move(col, odd.getMoveCount() % 2 + 1);
+		}
+		fresh.load(odd);
+		assertTrue(fresh.evaluate(1) >= Evaluator.THREAT_SCORE + Evaluator.PARITY_SCORE);
+
+		// Scoring leaves makes a one ply search prefer the center, while without
+		// it every move scores 0 and the first, left to right, is kept.
+		Connect4Engine engine = new Connect4Engine(1, 0);
+		engine.setOrdering(0);
+		assertTrue(engine.bestMove(new Connect4Model(), 1) == 3);
+		engine.setEvaluation(false);
+		assertTrue(engine.bestMove(new Connect4Model(), 1) == 0 && engine.getLastScore() == 0);
+	}
+
+	@Test
+	void pondering() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Connect4Engine engine = new Connect4Engine(6, 0);
+		engine.setTranspositionTable(new TranspositionTable(1));
+		Ponderer ponderer = new Ponderer(engine);
+		Connect4Model game = new Connect4Model();
+		game.move(3, 1);
+		ponderer.start(game, 1, executor);
+		// Once the search thread is free every reply has been answered.
+		executor.submit(() -> null).get();
+		game.move(2, 2);
+		int move = ponderer.take(game, 1);
+		assertTrue(move >= 0 && game.getRowPos(move) >= 0);
+		assertTrue(ponderer.getHits() == 1 && ponderer.getMisses() == 0 && ponderer.getHitDepth() == 6);
+
+		// The opponent moves before the pondering gets to run, a miss.
+		game.move(move, 1);
+		CountDownLatch busy = new CountDownLatch(1);
+		executor.submit(() -> {
+			busy.await();
+			return null;
+		});
+		ponderer.start(game, 1, executor);
+		game.move(4, 2);
+		ponderer.opponentMoved(game);
+		busy.countDown();
+		assertTrue(ponderer.take(game, 1) == -1);
+		assertTrue(ponderer.getMisses() == 1 && ponderer.getHitRate() == 0.5);
+		// The engine is free again, and a new game is not counted at all.
+		assertTrue(engine.bestMove(game, 1) >= 0);
+		ponderer.start(game, 1, executor);
+		assertTrue(ponderer.take(new Connect4Model(), 1) == -1);
+		assertTrue(ponderer.getHits() + ponderer.getMisses() == 2);
+		executor.shutdown();
+	}
+
+	@Test
+	void monteCarlo() {
+		// Red has three in column 0 and wins by playing on top of them.
+		Connect4Model test = new Connect4Model();
+		for (int col : new int[] { 0, 6, 0, 6, 0, 5 }) {
+			test.move(col, test.getMoveCount() % 2 + 1);
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory
+				.getThreadMXBean();
+		long created = threads.getCurrentThreadAllocatedBytes();
+		// The trees are allocated by the first search, not up front.
+		MonteCarloSearch idle = new MonteCarloSearch(1, MonteCarloSearch.DEFAULT_MEMORY);
+		assertTrue(threads.getCurrentThreadAllocatedBytes() - created < 64 * 1024);
+		assertTrue(idle.getNodeCapacity() == MonteCarloSearch.DEFAULT_MEMORY / MonteCarloSearch.NODE_BYTES);
+		MonteCarloSearch search = new MonteCarloSearch(1, 500 * MonteCarloSearch.NODE_BYTES);
+		search.setPlayoutBudget(5_000);
+		assertTrue(search.bestMove(test, 1) == 0);
+		assertTrue(search.getPlayouts() == 5_000 && search.getNodeCapacity() == 500);
+		// The tree stopped growing at the cap and kept running playouts.
+		assertTrue(search.getTreeSize() > 400 && search.getTreeSize() <= 500);
+		// Yellow has to block the same column.
+		assertTrue(search.bestMove(test, 2) == 0);
+		long before = threads.getCurrentThreadAllocatedBytes();
+		search.bestMove(test, 2);
+		// One model copy per move, nothing per playout.
+		assertTrue(threads.getCurrentThreadAllocatedBytes() - before < 16 * 1024);
+		assertTrue(search.getPlayoutsPerSecond() > 0);
+		// A stop made before the search starts is kept until resetStop.
+		search.stop();
+		assertTrue(test.getRowPos(search.bestMove(test, 2)) >= 0 && search.getPlayouts() == 0);
+		search.resetStop();
+		assertTrue(search.bestMove(test, 2) == 0 && search.getPlayouts() == 5_000);
+
+		// Root parallel threads share out the budget and add up their visits.
+		MonteCarloSearch parallel = new MonteCarloSearch(2, MonteCarloSearch.DEFAULT_MEMORY / 16);
+		parallel.setPlayoutBudget(4_000);
+		assertTrue(parallel.bestMove(test, 1) == 0 && parallel.getPlayouts() == 4_000);
+		assertTrue(parallel.bestMoveTimed(new Connect4Model(9, 9, 5), 1, 50) >= 0);
+		parallel.shutdown();
+
+		Connect4Controller cont = new Connect4Controller(test);
+		cont.setMonteCarloSearch(search);
+		cont.setMyTurn(true);
+		cont.computerMove();
+		assertTrue(test.getHeight(0) == 4 && cont.getLastSearchDepth() == 0);
+	}
+
+	@Test
+	void endgameTable() throws IOException {
+		// Random games stopped at 8 empty cells, skipping moves that win.
+		EndgameTableGenerator generator = new EndgameTableGenerator(8, 2);
+		List<Connect4Model> seeds = new ArrayList<>();
+		Random random = new Random(3);
+		while (seeds.size() < 4) {
+			Connect4Model game = new Connect4Model();
+			while (game != null && game.getMoveCount() < 34) {
+				int color = game.getMoveCount() % 2 + 1;
+				int col = random.nextInt(7);
+				for (int tries = 0; tries < 7 && (game.getRowPos(col) < 0 || game.isWinningMove(col, color)); tries++) {
+					col = (col + 1) % 7;
+				}
+				if (game.getRowPos(col) < 0 || game.isWinningMove(col, color)) {
+					game = null;
+				} else {
+					game.play(col, color);
+				}
+			}
+			if (game != null && generator.addSeed(game)) {
+				seeds.add(game);
+			}
+		}
+		assertFalse(generator.addSeed(new Connect4Model()));
+		assertTrue(generator.addSelfPlaySeeds(2, 1) >= 0);
+
+		Path file = Files.createTempFile("connect4", ".endgame");
+		try {
+			long count = generator.generate(file);
+			assertTrue(count == generator.getPositions() && count > generator.getPositions(8));
+			try (EndgameTable table = EndgameTable.open(file)) {
+				assertTrue(table.size() == count && table.getFileBytes() == Files.size(file));
+				assertTrue(table.probe(new Connect4Model()) == 0 && table.getMaxEmpty() == 8);
+				Connect4Engine engine = new Connect4Engine(8, 0);
+				engine.setEvaluation(false);
+				for (Connect4Model seed : seeds) {
+					int color = seed.getMoveCount() % 2 + 1;
+					int value = table.probe(seed);
+					assertTrue(value != 0 && table.bestMove(seed, 3 - color) == -1);
+					// A full depth search agrees with the table.
+					engine.bestMove(seed, color);
+					int score = engine.getLastScore();
+					int expected = score > Connect4Engine.MAX_EVALUATION ? EndgameTable.WIN
+							: score < -Connect4Engine.MAX_EVALUATION ? EndgameTable.LOSS : EndgameTable.DRAW;
+					assertTrue(EndgameTable.result(value) == expected);
+					int move = table.bestMove(seed, color);
+					if (seed.isWinningMove(move, color) == false) {
+						seed.play(move, color);
+						int child = table.probe(seed);
+						seed.undo(move);
+						// The move keeps the result, seen from the other side.
+						assertTrue(EndgameTable.distance(child) + 1 == EndgameTable.distance(value));
+						assertTrue(EndgameTable.result(child) == (expected == EndgameTable.DRAW ? EndgameTable.DRAW
+								: 3 - expected));
+					}
+				}
+
+				// Red is to move after 34 moves, as the computer plays by default.
+				Connect4Model game = seeds.get(0).copy();
+				int move = table.bestMove(game, 1);
+				int height = game.getHeight(move);
+				Connect4Controller cont = new Connect4Controller(game);
+				cont.setEndgameTable(table);
+				cont.setMyTurn(true);
+				cont.computerMove();
+				assertTrue(game.getMoveCount() == 35 && game.getHeight(move) == height + 1);
+				assertTrue(cont.getLastSearchDepth() == 0);
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void engineTakesWinAndBlocks() {
+		Connect4Model test = new Connect4Model();
+		Connect4Engine engine = new Connect4Engine(6, 0);
+		test.move(0, 1);
+		test.move(0, 1);
+		test.move(0, 1);
+		assertTrue(engine.bestMove(test, 1) == 0);
+		assertTrue(engine.bestMove(test, 2) == 0);
+		assertTrue(engine.getNodes() > 0);
+
+		Connect4Model open = new Connect4Model();
+		open.move(2, 1);
+		open.move(3, 1);
+		// Both ends of an open two are threats, the engine must see the double threat.
+		int move = engine.bestMove(open, 1);
+		assertTrue(move == 1 || move == 4);
+		assertTrue(engine.getLastScore() > 0);
+	}
+
+	@Test
+	void transpositionTable() {
+		TranspositionTable table = new TranspositionTable(1);
+		assertTrue(table.getCapacity() == 65536);
+		table.store(42L, 5, -17, TranspositionTable.LOWER, 3);
+		long entry = table.probe(42L);
+		assertTrue(TranspositionTable.score(entry) == -17);
+		assertTrue(TranspositionTable.bound(entry) == TranspositionTable.LOWER);
+		assertTrue(TranspositionTable.move(entry) == 3);
+		assertTrue(TranspositionTable.depth(entry) == 5);
+		assertTrue(table.probe(43L) == 0);
+
+		// On 7 rows by 8 columns the key uses the top bit, which must not be lost.
+		Connect4Model full = new Connect4Model(7, 8, 4);
+		Connect4Model empty = new Connect4Model(7, 8, 4);
+		full.move(7, 1);
+		for (int piece = 0; piece < 6; piece++) {
+			full.move(7, 2);
+		}
+		assertTrue(TranspositionTable.key(full, 1) != TranspositionTable.key(empty, 1));
+		assertTrue(TranspositionTable.key(full, 1) != TranspositionTable.key(full, 2));
+
+		// The same search with a table must agree with the search without one.
+		Connect4Model test = new Connect4Model();
+		test.move(3, 1);
+		test.move(3, 2);
+		test.move(2, 1);
+		Connect4Engine plain = new Connect4Engine(8, 0);
+		Connect4Engine cached = new Connect4Engine(8, 0);
+		cached.setTranspositionTable(new TranspositionTable(4));
+		plain.bestMove(test, 2);
+		cached.bestMove(test, 2);
+		assertTrue(plain.getLastScore() == cached.getLastScore());
+		assertTrue(cached.getNodes() < plain.getNodes());
+		assertTrue(cached.getTranspositionTable().getHitRate() > 0);
+	}
+
+	@Test
+	void parallelSearch() {
+		Connect4Model test = new Connect4Model();
+		test.move(3, 1);
+		test.move(3, 2);
+		test.move(3, 1);
+		test.move(4, 2);
+		test.move(2, 1);
+		test.move(4, 2);
+		ParallelSearch search = new ParallelSearch(4, 8, 0, new TranspositionTable(4));
+		int move = search.bestMove(test, 1);
+		long nodes = search.getNodes();
+		// A stop made before the search starts is kept until resetStop.
+		search.stop();
+		assertTrue(test.getRowPos(search.bestMove(test, 1)) >= 0 && search.getNodes() < nodes);
+		search.resetStop();
+		search.bestMove(test, 1);
+		assertTrue(search.getCompletedDepth() == 8);
+		search.shutdown();
+		assertTrue(test.getRowPos(move) >= 0);
+		assertTrue(nodes > 0);
+
+		Connect4Controller cont = new Connect4Controller(test);
+		cont.setSearchThreads(2);
+		cont.setMyTurn(true);
+		cont.computerMove();
+		assertTrue(test.getHeight(0) + test.getHeight(1) + test.getHeight(2) + test.getHeight(3)
+				+ test.getHeight(4) + test.getHeight(5) + test.getHeight(6) == 7);
+		cont.setSearchThreads(1);
+	}
+
+	@Test
+	void timedSearch() {
+		Connect4Model test = new Connect4Model();
+		Connect4Engine engine = new Connect4Engine(42, 0);
+		engine.setTranspositionTable(new TranspositionTable(4));
+		long start = System.currentTimeMillis();
+		int move = engine.bestMoveTimed(test, 1, 50);
+		long millis = System.currentTimeMillis() - start;
+		assertTrue(move >= 0 && move < 7);
+		assertTrue(engine.getCompletedDepth() > 0);
+		assertTrue(millis < 1000);
+
+		// A forced win ends the deepening before the budget is spent.
+		test.move(0, 1);
+		test.move(0, 1);
+		test.move(0, 1);
+		assertTrue(engine.bestMoveTimed(test, 1, 5000) == 0);
+		assertTrue(engine.getElapsedNanos() < 1_000_000_000L);
+
+		// A stop made before the search starts is kept until resetStop.
+		Connect4Model empty = new Connect4Model();
+		engine.stop();
+		assertTrue(empty.getRowPos(engine.bestMoveTimed(empty, 1, 5000)) >= 0);
+		assertTrue(engine.getElapsedNanos() < 1_000_000_000L);
+		engine.resetStop();
+		engine.bestMoveTimed(empty, 1, 20);
+		assertTrue(engine.getCompletedDepth() > 0);
+	}
+
+	@Test
+	void openingBook() throws IOException {
+		Path file = Files.createTempFile("connect4", ".book");
+		try {
+			int count = new OpeningBookGenerator(3, 6, 2, 1).generate(file);
+			// 1 empty board, 7 after one move and 49 after two.
+			assertTrue(count == 57);
+			OpeningBook book = OpeningBook.open(file);
+			assertTrue(book.size() == 57);
+			Connect4Model test = new Connect4Model();
+			test.move(3, 1);
+			test.move(2, 2);
+			int move = book.probe(test, 1);
+			assertTrue(move >= 0 && move < 7);
+			test.move(move, 1);
+			assertTrue(book.probe(test, 2) == -1);
+			// Connect 5 on the same board gives the same keys but other moves.
+			Connect4Model five = new Connect4Model(6, 7, 5);
+			assertTrue(book.fits(new Connect4Model()) && book.fits(five) == false);
+			assertTrue(book.probe(five, 1) == -1 && book.score(five, 1) == 0);
+
+			Connect4Controller cont = new Connect4Controller(new Connect4Model());
+			cont.setOpeningBook(book);
+			cont.setMyTurn(true);
+			cont.computerMove();
+			assertTrue(cont.getLastSearchDepth() == 0);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	void tournament() throws InterruptedException {
+		Connect4Tournament tournament = new Connect4Tournament("depth:4", "random", 20, 2);
+		tournament.run();
+		assertTrue(tournament.getWinsA() + tournament.getWinsB() + tournament.getDraws() == 20);
+		assertTrue(tournament.getWinsA() > tournament.getWinsB());
+		assertTrue(tournament.getLatencyA().getCount() + tournament.getLatencyB().getCount() == tournament.getMoves());
+		assertTrue(tournament.report().contains("games/sec"));
+		// Specs are checked up front without building players.
+		assertThrows(IllegalArgumentException.class, () -> new Connect4Tournament("depth:4", "deep:4", 2, 1));
+		assertThrows(IllegalArgumentException.class, () -> new Connect4Tournament("time:x", "random", 2, 1));
+		assertThrows(IllegalArgumentException.class, () -> Connect4Tournament.checkSpec("depth:-3"));
+		assertThrows(IllegalArgumentException.class, () -> Connect4Tournament.checkSpec("time:0"));
+		assertThrows(IllegalArgumentException.class, () -> Connect4Tournament.checkSpec("depth:5000000000"));
+		assertThrows(IllegalArgumentException.class, () -> Connect4Tournament.checkSpec("ponder:256"));
+		assertThrows(IllegalArgumentException.class, () -> Connect4Tournament.checkSpec("nodes:0"));
+		Connect4Tournament.checkSpec("depth:255");
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int index = 1; index <= 100; index++) {
+			histogram.recordNanos(index * 1_000_000L);
+		}
+		assertTrue(Math.abs(histogram.getPercentile(50) - 50_000) < 100);
+		assertTrue(Math.abs(histogram.getPercentile(99) - 99_000) < 200);
+		// Latencies past the last bucket are counted there and the max stays exact.
+		histogram.recordNanos(1L << 50);
+		assertTrue(histogram.getCount() == 101 && histogram.getMax() == (1L << 50) / 1000);
+		assertTrue(histogram.getPercentile(100) >= 1L << 26);
+	}
+
+	@Test
+	void moveCodec() throws IOException {
+		byte[] frame = new byte[MoveCodec.FRAME_BYTES];
+		MoveCodec.encode(frame, 0, 65535, 6, 2);
+		int decoded = MoveCodec.decode(frame, 0);
+		assertTrue(MoveCodec.sequence(decoded) == 65535);
+		assertTrue(MoveCodec.column(decoded) == 6);
+		assertTrue(MoveCodec.color(decoded) == 2);
+
+		ByteBuffer buffer = ByteBuffer.allocate(2 * MoveCodec.FRAME_BYTES);
+		MoveCodec.encode(buffer, 7, 3, 1);
+		buffer.flip();
+		decoded = MoveCodec.decode(buffer);
+		assertTrue(MoveCodec.sequence(decoded) == 7);
+		assertTrue(MoveCodec.column(decoded) == 3);
+		assertTrue(MoveCodec.color(decoded) == 1);
+		assertTrue(MoveCodec.decode(buffer) == -1);
+		// Moves that do not fit are refused rather than truncated into others.
+		assertThrows(IllegalArgumentException.class, () -> MoveCodec.encode(frame, 0, 1, 64, 1));
+		assertThrows(IllegalArgumentException.class, () -> MoveCodec.encode(frame, 0, 1, -1, 1));
+		assertThrows(IllegalArgumentException.class, () -> MoveCodec.encode(frame, 0, 1, 3, 3));
+		assertThrows(IllegalArgumentException.class, () -> MoveCodec.encode(buffer.clear(), 1, 3, 0));
+		MoveCodec.encode(frame, 0, 1, MoveCodec.START_COLUMN, 0);
+
+		frame[0] = 9;
+		try {
+			MoveCodec.decode(frame, 0);
+			fail("A frame from another version must be rejected");
+		} catch (ProtocolException e) {
+			// expected
+		}
+	}
+
+	@Test
+	void nioServer() throws IOException, InterruptedException {
+		Connect4Server server = new Connect4Server(0, 2);
+		server.start();
+		try {
+			playHostedMatch(new InetSocketAddress("localhost", server.getPort()));
+			assertTrue(server.getMovesRelayed() == 1);
+		} finally {
+			server.close();
+		}
+
+		// Closing the server also closes a connection still waiting for an opponent.
+		server = new Connect4Server(0, 1);
+		server.start();
+		try (SocketChannel unpaired = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()))) {
+			for (int wait = 0; wait < 500 && server.getConnections() < 1; wait++) {
+				Thread.sleep(2);
+			}
+			server.close();
+			assertTrue(unpaired.read(ByteBuffer.allocate(MoveCodec.FRAME_BYTES)) == -1);
+			assertTrue(server.getConnections() == 0);
+		}
+	}
+
+	@Test
+	void threadedServer() throws IOException {
+		Connect4ThreadedServer server = new Connect4ThreadedServer(0,
+				ConnectionExecutors.platformThreads("test-connection"));
+		server.start();
+		try {
+			playHostedMatch(new InetSocketAddress("localhost", server.getPort()));
+			assertTrue(server.getMovesRelayed() == 1);
+			// The caller's executor is reported, not whatever the runtime could do.
+			assertTrue(server.report().contains("platform threads"));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	void spectators() throws IOException, InterruptedException {
+		Connect4Server server = new Connect4Server(0, 2);
+		server.start();
+		server.startSpectators(0);
+		InetSocketAddress watch = new InetSocketAddress("localhost", server.getSpectatorPort());
+		try (SocketChannel first = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+				SocketChannel second = SocketChannel.open(new InetSocketAddress("localhost", server.getPort()));
+				SocketChannel unknown = SocketChannel.open(watch)) {
+			ByteBuffer frame = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+			readFrame(first, frame);
+			readFrame(second, frame);
+			// Two spectators, likely served by different event loops than the match.
+			SocketChannel[] watching = { SocketChannel.open(watch), SocketChannel.open(watch) };
+			for (SocketChannel spectator : watching) {
+				spectator.write(ByteBuffer.allocate(4).putInt(0, 1));
+			}
+			unknown.write(ByteBuffer.allocate(4).putInt(0, 99));
+			assertTrue(unknown.read(frame.clear()) == -1);
+			for (int wait = 0; wait < 500 && server.getSpectators() < 2; wait++) {
+				Thread.sleep(2);
+			}
+			assertTrue(server.getSpectators() == 2);
+
+			// Color 1 wins in column 0 on the seventh move.
+			SocketChannel[] players = { first, second };
+			for (int move = 0; move < 7; move++) {
+				frame.clear();
+				MoveCodec.encode(frame, move / 2, move % 2, move % 2 + 1);
+				players[move % 2].write(frame.flip());
+				readFrame(players[1 - move % 2], frame);
+			}
+			for (SocketChannel spectator : watching) {
+				int start = readFrame(spectator, frame);
+				assertTrue(MoveCodec.column(start) == MoveCodec.START_COLUMN && MoveCodec.sequence(start) == 0);
+				for (int move = 0; move < 7; move++) {
+					int played = readFrame(spectator, frame);
+					assertTrue(MoveCodec.sequence(played) == move + 1);
+					assertTrue(MoveCodec.column(played) == move % 2);
+					assertTrue(MoveCodec.color(played) == move % 2 + 1);
+				}
+				assertTrue(spectator.read(frame.clear()) == -1);
+				spectator.close();
+			}
+			assertTrue(server.getSpectatorFrames() == 16);
+			assertTrue(server.getSpectatorsDropped() == 0 && server.getSpectatorResyncs() == 0);
+		} finally {
+			server.close();
+		}
+	}
+
+	/*
+	 * Plays one move of a hosted match and then breaks the protocol.
+	 */
+	private static void playHostedMatch(InetSocketAddress address) throws IOException {
+		try (SocketChannel first = SocketChannel.open(address); SocketChannel second = SocketChannel.open(address)) {
+			ByteBuffer frame = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+			int start = readFrame(first, frame);
+			assertTrue(MoveCodec.column(start) == MoveCodec.START_COLUMN);
+			assertTrue(MoveCodec.color(start) == 1);
+			assertTrue(MoveCodec.color(readFrame(second, frame)) == 2);
+
+			frame.clear();
+			MoveCodec.encode(frame, 0, 3, 1);
+			first.write(frame.flip());
+			int relayed = readFrame(second, frame);
+			assertTrue(MoveCodec.sequence(relayed) == 1);
+			assertTrue(MoveCodec.column(relayed) == 3);
+			assertTrue(MoveCodec.color(relayed) == 1);
+
+			// Moving out of turn ends the match.
+			frame.clear();
+			MoveCodec.encode(frame, 1, 3, 1);
+			first.write(frame.flip());
+			frame.clear();
+			assertTrue(second.read(frame) == -1);
+		}
+	}
+
+	private static int readFrame(SocketChannel channel, ByteBuffer frame) throws IOException {
+		frame.clear();
+		while (frame.hasRemaining()) {
+			if (channel.read(frame) < 0) {
+				fail("Connection closed");
+			}
+		}
+		frame.flip();
+		return MoveCodec.decode(frame);
+	}
+
+	@Test
+	void connectionQueues() throws Exception {
+		ExecutorService executor = ConnectionExecutors.platformThreads("test-connection");
+		try (ServerSocket listener = new ServerSocket(0);
+				Socket socket = new Socket("localhost", listener.getLocalPort());
+				Connect4Connection client = new Connect4Connection(socket, WireFormat.BINARY);
+				Connect4Connection server = new Connect4Connection(listener.accept(), WireFormat.BINARY)) {
+			BlockingQueue<Connect4MoveMessage> received = new LinkedBlockingQueue<>();
+			// The server answers every move in the next column.
+			server.start(executor, Runnable::run, (msg) -> {
+				try {
+					server.send(new Connect4MoveMessage(msg.getRow() + 1, -1, 2));
+				} catch (IOException e) {
+					fail(e.getMessage());
+				}
+			});
+			client.start(executor, Runnable::run, received::add);
+
+			for (int move = 0; move < 5; move++) {
+				client.send(new Connect4MoveMessage(move, -1, 1));
+				Connect4MoveMessage reply = received.poll(5, TimeUnit.SECONDS);
+				assertNotNull(reply);
+				assertTrue(reply.getRow() == move + 1);
+				assertTrue(reply.getColor() == 2);
+			}
+			assertTrue(client.getReplyLatency().getCount() == 5);
+			assertTrue(server.getDispatchLatency().getCount() == 5);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void gameRecordStore() throws IOException, InterruptedException {
+		Path file = Files.createTempFile("connect4", ".games");
+		try {
+			GameRecordStore store = GameRecordStore.open(file);
+			Connect4Tournament tournament = new Connect4Tournament("random", "random", 200, 2);
+			tournament.setRecordStore(store);
+			tournament.run();
+			store.close();
+
+			store = GameRecordStore.open(file);
+			assertTrue(store.size() == 200);
+			long moves = 0;
+			int[] columns = new int[42];
+			for (long game = 0; game < store.size(); game++) {
+				Connect4Model replayed = new Connect4Model();
+				int count = store.replay(game, replayed);
+				moves += count;
+				assertTrue(store.readMoves(game, columns) == count);
+				int last = columns[count - 1];
+				int color = count % 2 == 1 ? 1 : 2;
+				int result = store.getResult(game);
+				if (result == 3) {
+					assertTrue(replayed.isBoardFull());
+				} else {
+					assertTrue(result == color);
+					assertTrue(replayed.checkForWin(replayed.getRowPos(last) + 1, last, color) == color);
+				}
+			}
+			assertTrue(moves == tournament.getMoves());
+			long[] visited = new long[1];
+			store.forEachGame((game, played, count, result) -> visited[0] += count);
+			assertTrue(visited[0] == tournament.getMoves());
+
+			// The controller archives a game once it is marked over.
+			Connect4Model test = new Connect4Model();
+			Connect4Controller cont = new Connect4Controller(test);
+			cont.setGameRecordStore(store);
+			for (int move = 0; move < 7; move++) {
+				test.move(move % 2, move % 2 + 1);
+			}
+			cont.setWinRecord(true);
+			assertTrue(store.size() == 201);
+			assertTrue(store.getResult(200) == 1);
+			assertTrue(store.getMoveCount(200) == 7);
+
+			// Clearing and setting the store again records each move once.
+			int listeners = test.getMoveListenerCount();
+			cont.setGameRecordStore(null);
+			assertTrue(test.getMoveListenerCount() == listeners - 1);
+			cont.setGameRecordStore(store);
+			assertTrue(test.getMoveListenerCount() == listeners);
+			cont.setWinRecord(false);
+			for (int move = 0; move < 7; move++) {
+				test.move(move % 2 + 2, move % 2 + 1);
+			}
+			cont.setWinRecord(true);
+			assertTrue(store.size() == 202 && store.getMoveCount(201) == 7);
+
+			// A board too wide for the records is refused up front.
+			Connect4Controller wide = new Connect4Controller(new Connect4Model(6, 9, 4));
+			GameRecordStore archive = store;
+			assertThrows(IllegalStateException.class, () -> wide.setGameRecordStore(archive));
+			wide.setGameRecordStore(null);
+			store.close();
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import model.Connect4MoveMessage;
+
+/**
+ * This Class carries moves between two games over one socket. Once started a
+ * reader task decodes every move that arrives into a bounded inbound queue and
+ * a writer task sends the moves queued by send, so neither side waits on the
+ * other. Received moves are handed to a handler on a dispatch executor, the
+ * JavaFX thread in a game, and several moves arriving together are handled in
+ * one dispatch. A full inbound queue stops the reader, which pushes back on the
+ * other game through TCP; a full outbound queue means the other game stopped
+ * reading and closes the connection.
+ *
+ * Two latencies are recorded on the dispatch thread just before the handler is
+ * called: from a move arriving to its dispatch, and from a move being sent to
+ * the other game's reply being dispatched.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4Connection implements Closeable {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 64;
+	// Queued by close to stop the writer.
+	private static final Connect4MoveMessage CLOSE = new Connect4MoveMessage(-1, -1, 0);
+
+	private final Socket socket;
+	private final WireFormat format;
+	private final BlockingQueue<Received> inbound;
+	private final BlockingQueue<Connect4MoveMessage> outbound;
+	private final AtomicBoolean dispatchPending = new AtomicBoolean();
+	private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+	private final LatencyHistogram replyLatency = new LatencyHistogram();
+	private ObjectOutputStream oos;
+	private ObjectInputStream ois;
+	private OutputStream out;
+	private DataInputStream in;
+	private final byte[] outFrame = new byte[MoveCodec.FRAME_BYTES];
+	private final byte[] inFrame = new byte[MoveCodec.FRAME_BYTES];
+	private int sendSequence;
+	private int receiveSequence;
+	private Executor dispatcher;
+	private Consumer<Connect4MoveMessage> handler;
+	private volatile long lastSentNanos;
+	private volatile boolean closed;
+
+	/**
+	 * Opens the socket's streams with the default queue capacity.
+	 *
+	 * @param socket connected socket
+	 * @param format format both games use
+	 */
+	public Connect4Connection(Socket socket, WireFormat format) throws IOException {
+		this(socket, format, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Opens the socket's streams.
+	 *
+	 * @param socket   connected socket
+	 * @param format   format both games use
+	 * @param capacity moves each queue holds
+	 */
+	public Connect4Connection(Socket socket, WireFormat format, int capacity) throws IOException {
+		this.socket = socket;
+		this.format = format;
+		this.inbound = new ArrayBlockingQueue<>(capacity);
+		this.outbound = new ArrayBlockingQueue<>(capacity);
+		socket.setTcpNoDelay(true);
+		if (format == WireFormat.SERIALIZED) {
+			oos = new ObjectOutputStream(socket.getOutputStream());
+			oos.flush();
+			ois = new ObjectInputStream(socket.getInputStream());
+		} else {
+			out = new BufferedOutputStream(socket.getOutputStream());
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		}
+	}
+
+	/**
+	 * Starts the reader and writer tasks.
+	 *
+	 * @param executor   runs the two tasks for as long as the connection is open
+	 * @param dispatcher runs the handler
+	 * @param handler    called with each move received, in order
+	 */
+	public void start(ExecutorService executor, Executor dispatcher, Consumer<Connect4MoveMessage> handler) {
+		this.dispatcher = dispatcher;
+		this.handler = handler;
+		executor.execute(this::readLoop);
+		executor.execute(this::writeLoop);
+	}
+
+	/**
+	 * Queues a move for the writer.
+	 *
+	 * @param msg move to send
+	 * @throws IOException if the connection is closed or the other game has
+	 *                     stopped reading
+	 */
+	public void send(Connect4MoveMessage msg) throws IOException {
+		if (closed) {
+			throw new IOException("Connection closed");
+		}
+		lastSentNanos = System.nanoTime();
+		if (outbound.offer(msg) == false) {
+			close();
+			throw new IOException("The other game is not reading moves");
+		}
+	}
+
+	/**
+	 * Blocks until the next move arrives. It is only called before start, after
+	 * which the reader task owns the input.
+	 *
+	 * @return the move; a binary frame only holds the column and color, so its
+	 *         row is -1
+	 */
+	public Connect4MoveMessage receive() throws IOException, ClassNotFoundException {
+		if (format == WireFormat.SERIALIZED) {
+			return (Connect4MoveMessage) ois.readObject();
+		}
+		in.readFully(inFrame);
+		int frame = MoveCodec.decode(inFrame, 0);
+		if (MoveCodec.sequence(frame) != receiveSequence) {
+			throw new ProtocolException(
+					"Expected move " + receiveSequence + " but received move " + MoveCodec.sequence(frame));
+		}
+		receiveSequence = (receiveSequence + 1) & 0xFFFF;
+		return new Connect4MoveMessage(MoveCodec.column(frame), -1, MoveCodec.color(frame));
+	}
+
+	/*
+	 * Decodes moves into the inbound queue until the connection closes.
+	 */
+	private void readLoop() {
+		try {
+			while (true) {
+				Connect4MoveMessage msg = receive();
+				inbound.put(new Received(msg, System.nanoTime()));
+				if (dispatchPending.compareAndSet(false, true)) {
+					dispatcher.execute(this::dispatch);
+				}
+			}
+		} catch (IOException | ClassNotFoundException | InterruptedException e) {
+			if (closed == false) {
+				System.err.println("Something went wrong with the network! " + e.getMessage());
+				close();
+			}
+		}
+	}
+
+	/*
+	 * Hands every queued move to the handler. Clearing the flag first means a
+	 * move queued while this runs schedules another dispatch.
+	 */
+	private void dispatch() {
+		dispatchPending.set(false);
+		for (Received received = inbound.poll(); received != null; received = inbound.poll()) {
+			long now = System.nanoTime();
+			dispatchLatency.recordNanos(now - received.nanos);
+			long sent = lastSentNanos;
+			if (sent != 0) {
+				replyLatency.recordNanos(now - sent);
+				lastSentNanos = 0;
+			}
+			handler.accept(received.msg);
+		}
+	}
+
+	/*
+	 * Writes queued moves until the connection closes.
+	 */
+	private void writeLoop() {
+		try {
+			for (Connect4MoveMessage msg = outbound.take(); msg != CLOSE; msg = outbound.take()) {
+				write(msg);
+			}
+		} catch (IOException | InterruptedException e) {
+			if (closed == false) {
+				System.err.println("Something went wrong with the network! " + e.getMessage());
+				close();
+			}
+		}
+	}
+
+	private void write(Connect4MoveMessage msg) throws IOException {
+		if (format == WireFormat.SERIALIZED) {
+			oos.writeObject(msg);
+			oos.flush();
+		} else {
+			MoveCodec.encode(outFrame, 0, sendSequence, msg.getRow(), msg.getColor());
+			sendSequence = (sendSequence + 1) & 0xFFFF;
+			out.write(outFrame);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Returns true once the connection is closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Returns the time from a move arriving to its handler being called.
+	 */
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	/**
+	 * Returns the time from a move being sent to the other game's reply being
+	 * dispatched, which includes the other game's thinking time.
+	 */
+	public LatencyHistogram getReplyLatency() {
+		return replyLatency;
+	}
+
+	/**
+	 * Closes the socket and stops both tasks. Moves still queued are dropped.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		outbound.clear();
+		outbound.offer(CLOSE);
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already gone.
+		}
+	}
+
+	/**
+	 * A move and when it arrived.
+	 */
+	private static class Received {
+		private final Connect4MoveMessage msg;
+		private final long nanos;
+
+		private Received(Connect4MoveMessage msg, long nanos) {
+			this.msg = msg;
+			this.nanos = nanos;
+		}
+	}
+}
@@ -1,15 +1,24 @@
 package controller;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Random;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import engine.Connect4Engine;
+import engine.EndgameTable;
+import engine.MonteCarloSearch;
+import engine.OpeningBook;
+import engine.ParallelSearch;
+import engine.Ponderer;
+import engine.TranspositionTable;
 import javafx.application.Platform;
 import model.Connect4Model;
 import model.Connect4MoveMessage;
+import model.GameRecordStore;
+import model.MoveListener;
 
 /**
  * This Class functions as the controller for the connect for game, it handles
@@ -21,18 +30,45 @@ import model.Connect4MoveMessage;
 public class Connect4Controller {
 
 	private Connect4Model model;
-	private Socket connection;
+	private Connect4Connection connection;
 	private boolean isConnected = false;
-	ObjectOutputStream oos;
-	ObjectInputStream ois;
+	private WireFormat wireFormat = WireFormat.BINARY;
 	private int myColor;
 	private boolean isHuman;
 	private boolean winRecord;
+	private Connect4Engine engine = new Connect4Engine();
+	private ParallelSearch parallel;
+	private OpeningBook openingBook;
+	private EndgameTable endgameTable;
+	private Ponderer ponderer;
+	private MonteCarloSearch monteCarlo;
+	private ExecutorService searchExecutor;
+	private ExecutorService connectionExecutor;
+	private GameRecordStore records;
+	private int[] playedColumns;
+	private int playedCount;
+	private boolean playedAlternate = true;
+	// Records the moves of the game being archived, registered while there is a
+	// store.
+	private final MoveListener recorder = (x, y, color) -> {
+		if (playedCount < playedColumns.length) {
+			playedAlternate &= color == (playedCount % 2 == 0 ? 1 : 2);
+			playedColumns[playedCount++] = y;
+		}
+	};
+	private boolean isSearching;
+	private int searchDepth = Connect4Engine.DEFAULT_DEPTH;
+	private long nodeBudget = Connect4Engine.DEFAULT_NODE_BUDGET;
+	private long moveTimeBudget;
+	private int lastSearchDepth;
+	private long lastSearchMillis;
+	private LatencyHistogram moveLatency = new LatencyHistogram();
 	// player 1(server) == red
 	// player 2(client) == yellow.
 
 	public Connect4Controller(Connect4Model passedModel) {
 		this.model = passedModel;
+		engine.setTranspositionTable(new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES));
 	}
 
 	/**
@@ -54,30 +90,352 @@ public class Connect4Controller {
 	}
 
 	/**
-	 * This method will generate a random integer to be used to select a row, it
-	 * will reselect if it selects a full row and will then pass the move to the
-	 * model to be executed.
+	 * This method will ask the engine for the best column for this player and pass
+	 * the move to the model to be executed. The engine's depth and node budget are
+	 * set through setSearchDepth and setNodeBudget. When called on the JavaFX
+	 * thread the search runs on a background thread and only the chosen column is
+	 * posted back with Platform.runLater, so the GUI stays responsive.
 	 */
 	public void computerMove() {
-		if (model.getTurn() == true) {
+		if (model.getTurn() == true && model.isBoardFull() == false && isSearching == false) {
+			// Before a connection is made myColor is not set, search as player one.
+			int searchColor = myColor == 2 ? 2 : 1;
+			// Cleared before the search is queued so cancelSearch from now on stops it.
+			engine.resetStop();
+			if (parallel != null) {
+				parallel.resetStop();
+			}
+			if (monteCarlo != null) {
+				monteCarlo.resetStop();
+			}
+			if (Platform.isFxApplicationThread()) {
+				isSearching = true;
+				Connect4Model position = model.copy();
+				// Pondering runs on the search thread, so stop a wrong guess before queueing.
+				if (ponderer != null) {
+					ponderer.opponentMoved(position);
+				}
+				getSearchExecutor().execute(() -> {
+					int move = chooseMove(position, searchColor);
+					Platform.runLater(() -> {
+						isSearching = false;
+						playComputerMove(move);
+					});
+				});
+			} else {
+				playComputerMove(chooseMove(model, searchColor));
+			}
+		}
+	}
 
-			boolean madeMove = false;
+	/**
+	 * Sets the time the computer player may spend on a move. With a budget the
+	 * engine deepens one ply at a time up to the search depth and plays the best
+	 * move found when the time runs out.
+	 * 
+	 * @param millis time per move in milliseconds, 0 to search to the fixed depth
+	 */
+	public void setMoveTimeBudget(long millis) {
+		moveTimeBudget = millis;
+		if (ponderer != null) {
+			ponderer.setMoveTimeBudget(millis);
+		}
+	}
 
-			while (madeMove == false && model.isBoardFull() == false) {
-				Random rn = new Random();
-				int rnMove = rn.nextInt(model.getXLEN() - 0 + 1) + 0;
-				if (model.getRowPos(rnMove) >= 0) {
-					model.move(rnMove, myColor);
+	/**
+	 * Returns the time the computer player may spend on a move.
+	 * 
+	 * @return time per move in milliseconds, 0 for a fixed depth search
+	 */
+	public long getMoveTimeBudget() {
+		return moveTimeBudget;
+	}
 
-					if (isConnected) {
-						this.sendMessage(new Connect4MoveMessage(rnMove, model.getRowPos(rnMove), myColor));
-					}
-					madeMove = true;
-				}
+	/**
+	 * Returns the deepest ply finished by the search for the last computer move.
+	 * 
+	 * @return the depth reached
+	 */
+	public int getLastSearchDepth() {
+		return lastSearchDepth;
+	}
+
+	/**
+	 * Returns the time taken by the search for the last computer move.
+	 * 
+	 * @return the search time in milliseconds
+	 */
+	public long getLastSearchMillis() {
+		return lastSearchMillis;
+	}
+
+	/**
+	 * Returns the latencies of the computer's moves, from the search starting to
+	 * the column being chosen. Ponder hits show up as moves taking no time.
+	 * 
+	 * @return the move latencies
+	 */
+	public LatencyHistogram getMoveLatency() {
+		return moveLatency;
+	}
+
+	/**
+	 * Turns pondering on or off. When the computer plays a connected game it then
+	 * searches its answers to the opponent's likely replies while waiting for
+	 * the opponent, and plays a prepared answer at once when the guess was right.
+	 * Pondering searches with the computer player's engine and table on the
+	 * search thread.
+	 * 
+	 * @param on true to ponder
+	 */
+	public void setPondering(boolean on) {
+		if (on && ponderer == null) {
+			ponderer = new Ponderer(engine);
+			ponderer.setMoveTimeBudget(moveTimeBudget);
+		} else if (on == false && ponderer != null) {
+			ponderer.stop();
+			ponderer = null;
+		}
+	}
+
+	/**
+	 * Returns the ponderer, which holds the ponder hit rate, or null when not
+	 * pondering.
+	 * 
+	 * @return the ponderer
+	 */
+	public Ponderer getPonderer() {
+		return ponderer;
+	}
+
+	/**
+	 * Stops a running computer search. The best move found so far is played.
+	 */
+	public void cancelSearch() {
+		if (parallel != null) {
+			parallel.stop();
+		}
+		if (monteCarlo != null) {
+			monteCarlo.stop();
+		}
+		engine.stop();
+	}
+
+	/**
+	 * Sets the number of threads the computer player searches with. More than one
+	 * thread uses a ParallelSearch sharing the computer player's transposition
+	 * table.
+	 * 
+	 * @param threads number of search threads
+	 */
+	public void setSearchThreads(int threads) {
+		if (parallel != null) {
+			parallel.shutdown();
+			parallel = null;
+		}
+		if (threads > 1) {
+			TranspositionTable table = engine.getTranspositionTable();
+			if (table == null) {
+				table = new TranspositionTable(TranspositionTable.DEFAULT_MEGABYTES);
+				engine.setTranspositionTable(table);
+			}
+			parallel = new ParallelSearch(threads, searchDepth, nodeBudget, table);
+		}
+	}
+
+	/**
+	 * Returns the parallel search, null when searching on one thread.
+	 * 
+	 * @return the parallel search
+	 */
+	public ParallelSearch getParallelSearch() {
+		return parallel;
+	}
+
+	/**
+	 * Sets a Monte Carlo Tree Search to choose the computer's moves instead of
+	 * the alpha-beta engine, which suits boards too big to search deeply. It runs
+	 * within the move time budget, or its playout budget without one. The opening
+	 * book is still checked first, and the computer does not ponder.
+	 * 
+	 * @param search the search, null to use the engine
+	 */
+	public void setMonteCarloSearch(MonteCarloSearch search) {
+		this.monteCarlo = search;
+		if (search != null && ponderer != null) {
+			ponderer.stop();
+		}
+	}
+
+	/**
+	 * Returns the Monte Carlo Tree Search choosing moves, null when the engine
+	 * does. It holds the playout rate and tree size of the last move.
+	 * 
+	 * @return the search
+	 */
+	public MonteCarloSearch getMonteCarloSearch() {
+		return monteCarlo;
+	}
+
+	/**
+	 * Sets the opening book the computer player checks before searching.
+	 * 
+	 * @param book the opening book, null to always search
+	 */
+	public void setOpeningBook(OpeningBook book) {
+		this.openingBook = book;
+	}
+
+	/**
+	 * Sets the endgame table the computer player probes before searching. Its
+	 * positions are solved, so a move from the table is played even over one
+	 * found by pondering.
+	 * 
+	 * @param table the endgame table, null to always search
+	 */
+	public void setEndgameTable(EndgameTable table) {
+		this.endgameTable = table;
+	}
+
+	/**
+	 * Returns the endgame table probed before searching, null if there is none.
+	 * 
+	 * @return the endgame table
+	 */
+	public EndgameTable getEndgameTable() {
+		return endgameTable;
+	}
+
+	/**
+	 * Runs the configured search on a position. Positions in the endgame table
+	 * are played from the table, then an answer found by pondering is played,
+	 * and positions in the opening book are played from the book without
+	 * searching. Pondering is stopped either way so the engine is free, but only
+	 * an answer that is played counts as a ponder hit.
+	 */
+	private int chooseMove(Connect4Model position, int color) {
+		long start = System.nanoTime();
+		int solved = endgameTable != null ? endgameTable.bestMove(position, color) : -1;
+		int move = -1;
+		if (ponderer != null) {
+			if (solved >= 0) {
+				ponderer.stop();
+			} else {
+				move = ponderer.take(position, color);
+			}
+		}
+		if (solved >= 0) {
+			move = solved;
+			lastSearchDepth = 0;
+		} else if (move >= 0) {
+			lastSearchDepth = ponderer.getHitDepth();
+		} else {
+			move = openingBook != null ? openingBook.probe(position, color) : -1;
+			if (move >= 0) {
+				lastSearchDepth = 0;
+			} else if (monteCarlo != null) {
+				move = moveTimeBudget > 0 ? monteCarlo.bestMoveTimed(position, color, moveTimeBudget)
+						: monteCarlo.bestMove(position, color);
+				lastSearchDepth = 0;
+			} else if (parallel != null) {
+				move = moveTimeBudget > 0 ? parallel.bestMoveTimed(position, color, moveTimeBudget)
+						: parallel.bestMove(position, color);
+				lastSearchDepth = parallel.getCompletedDepth();
+			} else {
+				move = moveTimeBudget > 0 ? engine.bestMoveTimed(position, color, moveTimeBudget)
+						: engine.bestMove(position, color);
+				lastSearchDepth = engine.getCompletedDepth();
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		lastSearchMillis = elapsed / 1_000_000;
+		moveLatency.recordNanos(elapsed);
+		return move;
+	}
+
+	/**
+	 * Plays the computer's column and sends it to the other game.
+	 */
+	private void playComputerMove(int move) {
+		if (move < 0 || model.getRowPos(move) < 0) {
+			return;
+		}
+		model.move(move, myColor);
+
+		if (isConnected) {
+			this.sendMessage(new Connect4MoveMessage(move, model.getRowPos(move), myColor));
+			// Think about the reply while the opponent does.
+			if (ponderer != null && monteCarlo == null && didColorWin(myColor) == 0) {
+				ponderer.start(model, myColor, getSearchExecutor());
 			}
 		}
 	}
 
+	/**
+	 * Returns the background thread used for searches started on the JavaFX
+	 * thread.
+	 */
+	private ExecutorService getSearchExecutor() {
+		if (searchExecutor == null) {
+			searchExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+				Thread thread = new Thread(runnable, "connect4-computer");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return searchExecutor;
+	}
+
+	/**
+	 * Sets the deepest ply the computer player searches.
+	 * 
+	 * @param depth the depth limit
+	 */
+	public void setSearchDepth(int depth) {
+		searchDepth = depth;
+		engine.setMaxDepth(depth);
+		if (parallel != null) {
+			parallel.setMaxDepth(depth);
+		}
+	}
+
+	/**
+	 * Sets the most nodes the computer player searches per move.
+	 * 
+	 * @param budget the node limit, 0 for no limit
+	 */
+	public void setNodeBudget(long budget) {
+		nodeBudget = budget;
+		engine.setNodeBudget(budget);
+		if (parallel != null) {
+			parallel.setNodeBudget(budget);
+		}
+	}
+
+	/**
+	 * Replaces the computer player's transposition table with one of the given
+	 * size. Hit and collision rates are read from getEngine().getTranspositionTable().
+	 * 
+	 * @param megabytes memory budget for the table, 0 to search without one
+	 */
+	public void setTranspositionTableSize(int megabytes) {
+		engine.setTranspositionTable(megabytes > 0 ? new TranspositionTable(megabytes) : null);
+		if (parallel != null) {
+			// Rebuild the threads so they share the new table.
+			setSearchThreads(parallel.getThreads());
+		}
+	}
+
+	/**
+	 * Returns the engine used for computer moves, which holds the node count and
+	 * timing of the last search.
+	 * 
+	 * @return the search engine
+	 */
+	public Connect4Engine getEngine() {
+		return engine;
+	}
+
 	/**
 	 * This method will generate a ServerSocket, Input and Output streams and
 	 * establish all connections.
@@ -85,20 +443,28 @@ public class Connect4Controller {
 	 * @param player passed mode true = set isHuman to true.
 	 */
 	public void startServer(boolean player) {
+		startServer(player, Connect4Server.DEFAULT_PORT);
+	}
+
+	/**
+	 * This method will wait for one other game on the given port and play it.
+	 * 
+	 * @param player passed mode true = set isHuman to true.
+	 * @param port   port to listen on
+	 */
+	public void startServer(boolean player, int port) {
 		try {
 			
-			ServerSocket server = new ServerSocket(4000);
-
 			//This will block until a message is received.
-			connection = server.accept();
-
-			oos = new ObjectOutputStream(connection.getOutputStream());
-			ois = new ObjectInputStream(connection.getInputStream());
+			try (ServerSocket server = new ServerSocket(port)) {
+				connection = new Connect4Connection(server.accept(), wireFormat);
+			}
 
 			isConnected = true;
 			model.setMyTurn(true);
 			myColor = 1;
 			isHuman = player;
+			startReading();
 			if (isHuman == false) {
 				this.computerMove();
 			}
@@ -114,57 +480,121 @@ public class Connect4Controller {
 	 * @param player contains true for human player and false for computer
 	 */
 	public void startClient(boolean player) {
+		startClient(player, "localhost", Connect4Server.DEFAULT_PORT);
+	}
+
+	/**
+	 * This method will connect to another game listening on the given host and
+	 * port and play second.
+	 * 
+	 * @param player contains true for human player and false for computer
+	 * @param host   host of the other game
+	 * @param port   port of the other game
+	 */
+	public void startClient(boolean player, String host, int port) {
 		try {
 			//This will block until a message is received.
-			connection = new Socket("localhost", 4000);
+			//Input and output streams for the chosen wire format.
+			connection = new Connect4Connection(new Socket(host, port), wireFormat);
 			
 			isHuman = player;
 			isConnected = true;
 			model.setMyTurn(false);
 			myColor = 2;
-			
-			//Object input and output streams.
-			oos = new ObjectOutputStream(connection.getOutputStream());
-			ois = new ObjectInputStream(connection.getInputStream());
 
-			if (isHuman == false) {
-				Thread t = new Thread(() -> {
-					try {
-						Connect4MoveMessage otherMsg = (Connect4MoveMessage) ois.readObject();
-
-						Platform.runLater(() -> {
-							model.move(otherMsg.getRow(), otherMsg.getColor());
-							model.setMyTurn(true);
-							this.computerMove();
-						});
-
-					} catch (IOException | ClassNotFoundException e) {
-						System.err.println("Something went wrong with serialization: " + e.getMessage());
-					}
-				});
-				t.start();
-			} else {
-				Thread t = new Thread(() -> {
-					try {
-						Connect4MoveMessage otherMsg = (Connect4MoveMessage) ois.readObject();
-
-						Platform.runLater(() -> {
-							model.move(otherMsg.getRow(), otherMsg.getColor());
-							model.setMyTurn(true);
-						});
-
-					} catch (IOException | ClassNotFoundException e) {
-						System.err.println("Something went wrong with serialization: " + e.getMessage());
-					}
-				});
-				t.start();
-			}
+			startReading();
 
 		} catch (IOException e) {
 			System.err.println("Something went wrong with the network! " + e.getMessage());
 		}
 	}
 
+	/**
+	 * This method will join a match on a Connect4Server. The server pairs this
+	 * game with the next one to connect and its start frame says which color this
+	 * game plays; color 1 moves first. The server only speaks the binary format.
+	 * 
+	 * @param player contains true for human player and false for computer
+	 * @param host   host of the server
+	 * @param port   port of the server
+	 */
+	public void joinServer(boolean player, String host, int port) {
+		try {
+			wireFormat = WireFormat.BINARY;
+			connection = new Connect4Connection(new Socket(host, port), wireFormat);
+
+			//This will block until the server has found an opponent.
+			Connect4MoveMessage start = connection.receive();
+			if (start.getRow() != MoveCodec.START_COLUMN) {
+				throw new ProtocolException("Expected a start frame");
+			}
+
+			isHuman = player;
+			isConnected = true;
+			myColor = start.getColor();
+			model.setMyTurn(myColor == 1);
+			startReading();
+			if (myColor == 1 && isHuman == false) {
+				this.computerMove();
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			System.err.println("Something went wrong with the network! " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Starts the connection's reader and writer. Each move received is checked
+	 * and played on the JavaFX thread, and if the gamestate is set to computer
+	 * (isHuman == false) the game answers it. A move the board can not take, or
+	 * one in our color, closes the connection.
+	 */
+	private void startReading() {
+		connection.start(getConnectionExecutor(), Platform::runLater, (otherMsg) -> {
+			int column = otherMsg.getRow();
+			if (otherMsg.getColor() != 3 - myColor || column < 0 || column >= model.getYLEN()
+					|| model.getRowPos(column) < 0) {
+				System.err.println("Something went wrong with the network! Illegal move in column " + column);
+				connection.close();
+				isConnected = false;
+				return;
+			}
+			model.move(column, otherMsg.getColor());
+			model.setMyTurn(true);
+			if (isHuman == false) {
+				this.computerMove();
+			}
+		});
+	}
+
+	/**
+	 * Returns the connection to the other game, null before one is made. Its
+	 * histograms hold the move latencies measured so far.
+	 */
+	public Connect4Connection getConnection() {
+		return connection;
+	}
+
+	/**
+	 * Sets the executor running each connection's reader and writer. By default
+	 * each gets a virtual thread where the runtime has them and a daemon platform
+	 * thread otherwise. It must be set before the connection is made.
+	 * 
+	 * @param executor runs the connection's tasks for as long as it is open
+	 */
+	public void setConnectionExecutor(ExecutorService executor) {
+		this.connectionExecutor = executor;
+	}
+
+	/*
+	 * Returns the executor running the connection, creating the default one.
+	 */
+	private ExecutorService getConnectionExecutor() {
+		if (connectionExecutor == null) {
+			connectionExecutor = ConnectionExecutors.perConnection("connect4-connection");
+		}
+		return connectionExecutor;
+	}
+
 	/**
 	 * This method will call the models check methods and see if a connect 4 has
 	 * been made for the last color used. @return, this will return one of 4 values.
@@ -175,6 +605,16 @@ public class Connect4Controller {
 		return model.checkForWin(color);
 	}
 
+	/**
+	 * This method will check only the lines through the last move for a connect 4.
+	 * The row and column are the ones reported in the Connect4MoveMessage.
+	 * @return, 0 no win,1 player one win, 2 player two win, 3 board full no winner.
+	 */
+	public int didColorWin(int x, int y, int color) {
+
+		return model.checkForWin(x, y, color);
+	}
+
 	/**
 	 * Passes the turnstate to the model
 	 * 
@@ -199,9 +639,57 @@ public class Connect4Controller {
 	 * @param winState the passed winstate.
 	 */
 	public void setWinRecord(boolean winState) {
+		if (winState && winRecord == false) {
+			archiveGame();
+		}
 		this.winRecord = winState;
 	}
 
+	/**
+	 * Sets a store to archive each finished game in. Moves are recorded as the
+	 * model reports them and the game is stored once setWinRecord marks it over.
+	 * Games whose colors do not alternate from color 1, such as games played
+	 * before a connection sets the colors, are not stored.
+	 * 
+	 * @param store the store, or null to stop archiving
+	 * @throws IllegalStateException if the board is too wide for game records
+	 */
+	public void setGameRecordStore(GameRecordStore store) {
+		if (store != null && model.getYLEN() > GameRecordStore.MAX_COLUMNS) {
+			throw new IllegalStateException("Game records hold boards of at most " + GameRecordStore.MAX_COLUMNS
+					+ " columns");
+		}
+		if (records == null && store != null) {
+			playedColumns = new int[model.getXLEN() * model.getYLEN()];
+			playedCount = 0;
+			playedAlternate = true;
+			model.addMoveListener(recorder);
+		} else if (records != null && store == null) {
+			model.removeMoveListener(recorder);
+		}
+		this.records = store;
+	}
+
+	/*
+	 * Stores the moves played since the last archived game.
+	 */
+	private void archiveGame() {
+		if (records != null && playedAlternate && playedCount > 0) {
+			// A full board reads as 3 for a color that did not win.
+			int result = didColorWin(2);
+			if (result != 2) {
+				result = didColorWin(1);
+			}
+			try {
+				records.append(playedColumns, playedCount, result);
+			} catch (IOException e) {
+				System.err.println("Something went wrong saving the game! " + e.getMessage());
+			}
+		}
+		playedCount = 0;
+		playedAlternate = true;
+	}
+
 	/**
 	 * returns the controller as having seen a win.
 	 * 
@@ -212,63 +700,37 @@ public class Connect4Controller {
 	}
 
 	/*
-	 * This method will send a message to the other connected game using a thread,
-	 * this thread will then wait for a response from the other game and process
-	 * that message. If the gamestate is set to computer (isHuman == false) then the
-	 * game will play a move whenever a message is received.
+	 * This method will queue a message for the other connected game. The reply is
+	 * picked up by the connection's reader.
 	 */
 	private void sendMessage(Connect4MoveMessage msg) {
 		if (!isConnected) {
 			return;
 		}
 
-		if (isHuman == true) {
-			Thread t = new Thread(() -> {
-				try {
-					oos.writeObject(msg);
-					oos.flush();
-
-					Object otherMsg = ois.readObject();
-					Connect4MoveMessage recieved = (Connect4MoveMessage) otherMsg;
-					int col = recieved.getRow();
-					int color = recieved.getColor();
-
-					Platform.runLater(() -> {
-						model.move(col, color);
-						model.setMyTurn(true);
-					});
-				} catch (IOException | ClassNotFoundException e) {
-					System.err.println("Something went wrong with serialization: " + e.getMessage());
-				}
-			});
-			t.start();
-		} else {
-			Thread t = new Thread(() -> {
-				try {
-					oos.writeObject(msg);
-					oos.flush();
-
-					Object otherMsg = ois.readObject();
-					Connect4MoveMessage recieved = (Connect4MoveMessage) otherMsg;
-					int col = recieved.getRow();
-					int color = recieved.getColor();
+		try {
+			connection.send(msg);
+		} catch (IOException e) {
+			System.err.println("Something went wrong with the network! " + e.getMessage());
+		}
+	}
 
-					Platform.runLater(() -> {
-						model.move(col, color);
-						model.setMyTurn(true);
-						try {
-							Thread.sleep(200);
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-						this.computerMove();
-					});
+	/**
+	 * Sets the format moves are sent in. It must be set before the connection is
+	 * made and match the other game's format.
+	 * 
+	 * @param format BINARY frames, or SERIALIZED objects for older versions
+	 */
+	public void setWireFormat(WireFormat format) {
+		this.wireFormat = format;
+	}
 
-				} catch (IOException | ClassNotFoundException e) {
-					System.err.println("Something went wrong with serialization: " + e.getMessage());
-				}
-			});
-			t.start();
-		}
+	/**
+	 * Returns the format moves are sent in.
+	 * 
+	 * @return the wire format
+	 */
+	public WireFormat getWireFormat() {
+		return wireFormat;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,224 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+import model.Connect4Model;
+
+/**
+ * This Class loads a Connect4Server with many simultaneous players from one
+ * thread. Every connection is an independent player that answers each move
+ * with a random legal column, keeping its own Connect4Model of the match. The
+ * round trip time of a move is measured from sending it to receiving the
+ * opponent's reply, and finished connections are replaced until the requested
+ * number of games has been played.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4LoadClient {
+
+	private final InetSocketAddress address;
+	private final int concurrent;
+	private final long games;
+	private final Selector selector;
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+	private long opened;
+	private long closed;
+	private long moves;
+	private long elapsedNanos;
+
+	/**
+	 * Creates a load client.
+	 *
+	 * @param address    server address
+	 * @param concurrent number of connections kept open
+	 * @param games      number of games to play, two connections each
+	 */
+	public Connect4LoadClient(InetSocketAddress address, int concurrent, long games) throws IOException {
+		this.address = address;
+		this.concurrent = Math.max(2, concurrent - concurrent % 2);
+		this.games = games;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Plays the games and returns when every connection has closed.
+	 */
+	public void run() throws IOException {
+		long start = System.nanoTime();
+		long connectionsWanted = games * 2;
+		while (opened < Math.min(concurrent, connectionsWanted)) {
+			open();
+		}
+		while (closed < opened) {
+			selector.select();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				Player player = (Player) key.attachment();
+				try {
+					read(player);
+				} catch (IOException e) {
+					key.cancel();
+					player.channel.close();
+					closed++;
+					// Replace connections in pairs so the server keeps pairing them.
+					if (closed % 2 == 0 && opened < connectionsWanted) {
+						open();
+						open();
+					}
+				}
+			}
+		}
+		elapsedNanos = System.nanoTime() - start;
+		selector.close();
+	}
+
+	private void open() throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		channel.configureBlocking(false);
+		channel.register(selector, SelectionKey.OP_READ, new Player(channel));
+		opened++;
+	}
+
+	/**
+	 * Handles every frame that has arrived. The server closing the connection
+	 * ends the game.
+	 */
+	private void read(Player player) throws IOException {
+		if (player.channel.read(player.in) < 0) {
+			throw new IOException("Match over");
+		}
+		player.in.flip();
+		int frame;
+		while ((frame = MoveCodec.decode(player.in)) >= 0) {
+			if (MoveCodec.sequence(frame) != player.receiveSequence) {
+				throw new ProtocolException("Out of order frame");
+			}
+			player.receiveSequence++;
+			int column = MoveCodec.column(frame);
+			if (column == MoveCodec.START_COLUMN) {
+				player.color = MoveCodec.color(frame);
+				if (player.color == 1) {
+					play(player);
+				}
+				continue;
+			}
+			if (player.sentNanos != 0) {
+				roundTrip.recordNanos(System.nanoTime() - player.sentNanos);
+				player.sentNanos = 0;
+			}
+			boolean won = player.model.isWinningMove(column, MoveCodec.color(frame));
+			player.model.move(column, MoveCodec.color(frame));
+			if (won == false && player.model.isBoardFull() == false) {
+				play(player);
+			}
+		}
+		player.in.compact();
+	}
+
+	/**
+	 * Plays a random legal column. The server closes the match after a winning
+	 * or last move.
+	 */
+	private void play(Player player) throws IOException {
+		Connect4Model model = player.model;
+		int width = model.getYLEN();
+		int column = ThreadLocalRandom.current().nextInt(width);
+		while (model.getRowPos(column) < 0) {
+			column = column + 1 == width ? 0 : column + 1;
+		}
+		model.move(column, player.color);
+		player.out.clear();
+		MoveCodec.encode(player.out, player.sendSequence++, column, player.color);
+		player.out.flip();
+		player.sentNanos = System.nanoTime();
+		while (player.out.hasRemaining()) {
+			player.channel.write(player.out);
+		}
+		moves++;
+	}
+
+	/**
+	 * One simulated player.
+	 */
+	private static class Player {
+		private final SocketChannel channel;
+		private final Connect4Model model = new Connect4Model();
+		private final ByteBuffer in = ByteBuffer.allocate(256);
+		private final ByteBuffer out = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+		private int color;
+		private int sendSequence;
+		private int receiveSequence;
+		private long sentNanos;
+
+		private Player(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	/**
+	 * Returns the round trip times of the moves sent.
+	 */
+	public LatencyHistogram getRoundTrip() {
+		return roundTrip;
+	}
+
+	/**
+	 * Returns a summary of the run.
+	 */
+	public String report() {
+		double seconds = elapsedNanos / 1e9;
+		return String.format("%d connections, %d at once, %d moves in %.2f s (%.0f moves/sec), round trip %s",
+				opened, concurrent, moves, seconds, moves / seconds, roundTrip.summary());
+	}
+
+	/**
+	 * Runs a load test from the command line. Given nio or threaded instead of a
+	 * host, an in-process Connect4Server or Connect4ThreadedServer is started and
+	 * its load is reported too.
+	 *
+	 * @param args concurrent connections, games, and a host and port or a server
+	 */
+	public static void main(String[] args) throws IOException {
+		int concurrent = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		long games = args.length > 1 ? Long.parseLong(args[1]) : 10_000;
+		String target = args.length > 2 ? args[2] : "nio";
+		Connect4Server server = null;
+		Connect4ThreadedServer threadedServer = null;
+		InetSocketAddress address;
+		if (target.equals("nio")) {
+			server = new Connect4Server(0, Runtime.getRuntime().availableProcessors());
+			server.start();
+			address = new InetSocketAddress("localhost", server.getPort());
+		} else if (target.equals("threaded")) {
+			threadedServer = new Connect4ThreadedServer(0);
+			threadedServer.start();
+			address = new InetSocketAddress("localhost", threadedServer.getPort());
+		} else {
+			int port = args.length > 3 ? Integer.parseInt(args[3]) : Connect4Server.DEFAULT_PORT;
+			address = new InetSocketAddress(target, port);
+		}
+		Connect4LoadClient client = new Connect4LoadClient(address, concurrent, games);
+		client.run();
+		System.out.println(client.report());
+		if (server != null) {
+			System.out.println(server.report());
+			server.close();
+		}
+		if (threadedServer != null) {
+			System.out.println(threadedServer.report());
+			threadedServer.close();
+		}
+	}
+}
@@ -0,0 +1,631 @@
+package controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This Class hosts many games at once for players connecting over the network.
+ * Connections are paired in the order they arrive and each pair plays on its
+ * own Connect4Model. An accept thread pairs the connections and hands each
+ * match to one of a small number of event loop threads, each of which serves
+ * all of its matches through a single non-blocking Selector.
+ *
+ * Moves use the MoveCodec frames. When a match starts the server sends each
+ * player a start frame, column MoveCodec.START_COLUMN and the player's color;
+ * color 1 moves first. Each move is checked against the match's model before it
+ * is forwarded to the opponent. The server closes both connections once the
+ * last move of a match has been sent, and a player sending a bad frame or
+ * closing its connection ends the match for both. A connection waiting for an
+ * opponent is not read, so one that disconnects is only noticed once paired.
+ *
+ * Matches are numbered from 1 in the order they start. Once startSpectators
+ * has been called, anyone may watch a match by connecting to the spectator port
+ * and sending its number as a four byte int. The match's SpectatorFeed then
+ * streams it the moves, encoded once for all spectators, and closes the
+ * connection after the last one. Spectators are served by the match's event
+ * loop and never hold up the players: one that falls behind is dropped or
+ * resynchronized as set by setSpectatorPolicy. An unknown or finished match
+ * closes the connection.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4Server implements Closeable {
+
+	public static final int DEFAULT_PORT = 4000;
+	public static final int DEFAULT_SPECTATOR_PORT = 4001;
+	public static final int DEFAULT_SPECTATOR_QUEUE = 32;
+	private static final int BUFFER_BYTES = 256;
+
+	/**
+	 * What happens to a spectator that falls more than the queue length behind.
+	 */
+	public enum SlowSpectatorPolicy {
+		/** Close the spectator's connection. */
+		DROP,
+		/** Send the game again from the start once the spectator catches up. */
+		RESYNC
+	}
+
+	private final int port;
+	private final EventLoop[] loops;
+	private ServerSocketChannel serverChannel;
+	private Thread acceptThread;
+	private volatile boolean running;
+	private volatile SocketChannel waiting;
+	private int nextLoop;
+	private int nextMatchId = 1;
+	private final Map<Integer, Match> liveMatches = new ConcurrentHashMap<>();
+	private ServerSocketChannel spectatorChannel;
+	private Thread spectatorThread;
+	private SlowSpectatorPolicy spectatorPolicy = SlowSpectatorPolicy.RESYNC;
+	private int spectatorQueue = DEFAULT_SPECTATOR_QUEUE;
+	private final SpectatorFeed.Counters spectatorCounters = new SpectatorFeed.Counters();
+
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger activeMatches = new AtomicInteger();
+	private final AtomicLong finishedMatches = new AtomicLong();
+	private final AtomicLong movesRelayed = new AtomicLong();
+
+	/**
+	 * Creates a server. It does not listen until start is called.
+	 *
+	 * @param port       port to listen on, 0 for any free port
+	 * @param loopThreads number of event loop threads
+	 */
+	public Connect4Server(int port, int loopThreads) {
+		this.port = port;
+		this.loops = new EventLoop[Math.max(1, loopThreads)];
+	}
+
+	/**
+	 * Binds the port and starts the accept and event loop threads.
+	 *
+	 * @throws IOException if the port can not be bound
+	 */
+	public void start() throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		running = true;
+		for (int index = 0; index < loops.length; index++) {
+			loops[index] = new EventLoop();
+			Thread thread = new Thread(loops[index], "connect4-loop-" + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		acceptThread = new Thread(this::acceptConnections, "connect4-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Sets how spectators that fall behind are handled. It must be set before
+	 * start is called.
+	 * 
+	 * @param policy     DROP or RESYNC
+	 * @param queueFrames moves a spectator may fall behind before the policy applies
+	 */
+	public void setSpectatorPolicy(SlowSpectatorPolicy policy, int queueFrames) {
+		this.spectatorPolicy = policy;
+		this.spectatorQueue = queueFrames;
+	}
+
+	/**
+	 * Binds the spectator port and starts accepting spectators. The server must
+	 * have been started.
+	 * 
+	 * @param port port to listen on, 0 for any free port
+	 * @throws IOException if the port can not be bound
+	 */
+	public void startSpectators(int port) throws IOException {
+		spectatorChannel = ServerSocketChannel.open();
+		spectatorChannel.bind(new InetSocketAddress(port), 1024);
+		spectatorThread = new Thread(this::acceptSpectators, "connect4-spectators");
+		spectatorThread.setDaemon(true);
+		spectatorThread.start();
+	}
+
+	/**
+	 * Returns the port spectators connect to.
+	 */
+	public int getSpectatorPort() {
+		return spectatorChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Accepts spectators and hands them to the event loops in turn, which read
+	 * the match each one asks for.
+	 */
+	private void acceptSpectators() {
+		int loop = 0;
+		while (running) {
+			try {
+				SocketChannel channel = spectatorChannel.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				loops[loop].addSpectator(new SpectatorFeed.Spectator(channel));
+				loop = (loop + 1) % loops.length;
+			} catch (IOException | RuntimeException e) {
+				if (running) {
+					System.err.println("Something went wrong with the network! " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accepts connections until the server is closed, pairing each one with the
+	 * connection before it.
+	 */
+	private void acceptConnections() {
+		while (running) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connections.incrementAndGet();
+				if (waiting == null) {
+					waiting = channel;
+				} else {
+					EventLoop loop = loops[nextLoop];
+					nextLoop = (nextLoop + 1) % loops.length;
+					Match match = new Match(nextMatchId++, loop, waiting, channel);
+					liveMatches.put(match.id, match);
+					loop.add(match);
+					waiting = null;
+				}
+			} catch (IOException | RuntimeException e) {
+				if (running) {
+					System.err.println("Something went wrong with the network! " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections and closes every match.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverChannel.close();
+		if (spectatorChannel != null) {
+			spectatorChannel.close();
+		}
+		SocketChannel unpaired = waiting;
+		if (unpaired != null) {
+			waiting = null;
+			connections.decrementAndGet();
+			unpaired.close();
+		}
+		for (EventLoop loop : loops) {
+			if (loop != null) {
+				loop.selector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * One event loop thread and the matches it serves.
+	 */
+	private class EventLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Match> added = new ConcurrentLinkedQueue<>();
+		private final Queue<SpectatorFeed.Spectator> addedSpectators = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer discard = ByteBuffer.allocate(BUFFER_BYTES);
+		private final LatencyHistogram relayLatency = new LatencyHistogram();
+
+		private EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		private void add(Match match) {
+			added.add(match);
+			selector.wakeup();
+		}
+
+		/**
+		 * Hands a spectator to this loop, either to read its request or, if it
+		 * has a feed, to watch a match this loop serves.
+		 */
+		private void addSpectator(SpectatorFeed.Spectator spectator) {
+			addedSpectators.add(spectator);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					selector.select();
+					for (Match match = added.poll(); match != null; match = added.poll()) {
+						begin(match);
+					}
+					for (SpectatorFeed.Spectator spectator = addedSpectators.poll(); spectator != null; spectator = addedSpectators
+							.poll()) {
+						register(spectator);
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (key.attachment() instanceof SpectatorFeed.Spectator) {
+							serve((SpectatorFeed.Spectator) key.attachment());
+							continue;
+						}
+						Player player = (Player) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable()) {
+								read(player);
+							}
+							if (key.isValid() && key.isWritable()) {
+								flush(player);
+							}
+						} catch (IOException | RuntimeException e) {
+							// A key cancelled under us ends only its own match.
+							end(player.match);
+						}
+					}
+				} catch (IOException | RuntimeException e) {
+					// Keep serving the loop's other matches.
+					System.err.println("Something went wrong with the network! " + e.getMessage());
+				}
+			}
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof SpectatorFeed.Spectator) {
+					SpectatorFeed.Spectator spectator = (SpectatorFeed.Spectator) key.attachment();
+					if (spectator.feed != null) {
+						spectator.feed.close(spectator);
+					} else {
+						SpectatorFeed.closeChannel(spectator);
+					}
+				} else {
+					end(((Player) key.attachment()).match);
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Closing anyway.
+			}
+		}
+
+		/**
+		 * Registers a new match's connections and sends the start frames.
+		 */
+		private void begin(Match match) {
+			activeMatches.incrementAndGet();
+			try {
+				for (Player player : match.players) {
+					player.key = player.channel.register(selector, SelectionKey.OP_READ, player);
+				}
+				for (Player player : match.players) {
+					send(player, MoveCodec.START_COLUMN, player.color);
+				}
+			} catch (IOException | RuntimeException e) {
+				end(match);
+			}
+		}
+
+		/**
+		 * Registers a spectator handed to this loop. One whose match was found by
+		 * another loop is subscribed right away.
+		 */
+		private void register(SpectatorFeed.Spectator spectator) {
+			try {
+				spectator.key = spectator.channel.register(selector, SelectionKey.OP_READ, spectator);
+				if (spectator.feed != null) {
+					spectator.feed.subscribe(spectator);
+				}
+			} catch (IOException | RuntimeException e) {
+				SpectatorFeed.closeChannel(spectator);
+			}
+		}
+
+		/**
+		 * Reads a spectator's request for a match, or notices it closing, and
+		 * writes what it is waiting for.
+		 */
+		private void serve(SpectatorFeed.Spectator spectator) {
+			SelectionKey key = spectator.key;
+			try {
+				if (key.isValid() && key.isReadable()) {
+					if (spectator.request != null) {
+						if (spectator.channel.read(spectator.request) < 0) {
+							throw new ClosedChannelException();
+						}
+						if (spectator.request.hasRemaining() == false) {
+							watch(spectator, liveMatches.get(spectator.request.getInt(0)));
+						}
+					} else {
+						discard.clear();
+						if (spectator.channel.read(discard) < 0) {
+							throw new ClosedChannelException();
+						}
+					}
+				}
+				if (key.isValid() && key.isWritable() && spectator.feed != null) {
+					spectator.feed.flush(spectator);
+				}
+			} catch (IOException | RuntimeException e) {
+				if (spectator.feed != null) {
+					spectator.feed.close(spectator);
+				} else {
+					SpectatorFeed.closeChannel(spectator);
+				}
+			}
+		}
+
+		/**
+		 * Subscribes a spectator to a match, handing it to the match's loop if
+		 * that is another one.
+		 */
+		private void watch(SpectatorFeed.Spectator spectator, Match match) throws IOException {
+			if (match == null) {
+				throw new ClosedChannelException();
+			}
+			if (match.loop == this) {
+				match.feed.subscribe(spectator);
+			} else {
+				spectator.key.cancel();
+				spectator.key = null;
+				// Marks the spectator for subscribing once the other loop has it.
+				spectator.feed = match.feed;
+				match.loop.addSpectator(spectator);
+			}
+		}
+
+		/**
+		 * Reads what has arrived and handles every complete frame.
+		 */
+		private void read(Player player) throws IOException {
+			int count = player.channel.read(player.in);
+			if (count < 0) {
+				throw new ClosedChannelException();
+			}
+			player.in.flip();
+			int frame;
+			while (player.match.isOver() == false && (frame = MoveCodec.decode(player.in)) >= 0) {
+				long start = System.nanoTime();
+				relay(player, frame);
+				relayLatency.recordNanos(System.nanoTime() - start);
+			}
+			player.in.compact();
+		}
+
+		/**
+		 * Checks a move against the match's model, plays it and forwards it.
+		 */
+		private void relay(Player player, int frame) throws IOException {
+			Match match = player.match;
+			int column = MoveCodec.column(frame);
+			if (MoveCodec.sequence(frame) != player.receiveSequence || MoveCodec.color(frame) != player.color) {
+				throw new ProtocolException("Illegal move");
+			}
+			player.receiveSequence = (player.receiveSequence + 1) & 0xFFFF;
+			boolean ended = match.play(player.color, column);
+			movesRelayed.incrementAndGet();
+			send(match.opponent(player), column, player.color);
+			match.feed.publish();
+			if (ended) {
+				finishedMatches.incrementAndGet();
+				closeIfFlushed(match);
+			}
+		}
+
+		/**
+		 * Closes a finished match once the last move has been written to both
+		 * players.
+		 */
+		private void closeIfFlushed(Match match) {
+			if (match.isOver() && match.players[0].out.position() == 0 && match.players[1].out.position() == 0) {
+				end(match);
+			}
+		}
+
+		/**
+		 * Queues a frame and writes as much as the socket takes.
+		 */
+		private void send(Player player, int column, int color) throws IOException {
+			MoveCodec.encode(player.out, player.sendSequence, column, color);
+			player.sendSequence = (player.sendSequence + 1) & 0xFFFF;
+			flush(player);
+		}
+
+		private void flush(Player player) throws IOException {
+			player.out.flip();
+			player.channel.write(player.out);
+			boolean pending = player.out.hasRemaining();
+			player.out.compact();
+			player.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			if (pending == false && player.match.isOver()) {
+				closeIfFlushed(player.match);
+			}
+		}
+
+		/**
+		 * Closes both connections of a match.
+		 */
+		private void end(Match match) {
+			if (match.closed) {
+				return;
+			}
+			match.closed = true;
+			match.finish();
+			liveMatches.remove(match.id);
+			match.feed.finish();
+			activeMatches.decrementAndGet();
+			for (Player player : match.players) {
+				connections.decrementAndGet();
+				if (player.key != null) {
+					player.key.cancel();
+				}
+				try {
+					player.channel.close();
+				} catch (IOException e) {
+					// Already gone.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Two connections playing on one model.
+	 */
+	private class Match extends HostedMatch {
+		private final int id;
+		private final EventLoop loop;
+		private final Player[] players;
+		private final SpectatorFeed feed;
+		private boolean closed;
+
+		private Match(int id, EventLoop loop, SocketChannel first, SocketChannel second) {
+			this.id = id;
+			this.loop = loop;
+			players = new Player[] { new Player(this, first, 1), new Player(this, second, 2) };
+			feed = new SpectatorFeed(getModel(), spectatorPolicy, spectatorQueue, spectatorCounters);
+			addMoveListener(feed);
+		}
+
+		private Player opponent(Player player) {
+			return players[0] == player ? players[1] : players[0];
+		}
+	}
+
+	/**
+	 * One connection and its buffers.
+	 */
+	private static class Player {
+		private final Match match;
+		private final SocketChannel channel;
+		private final int color;
+		private final ByteBuffer in = ByteBuffer.allocate(BUFFER_BYTES);
+		private final ByteBuffer out = ByteBuffer.allocate(BUFFER_BYTES);
+		private SelectionKey key;
+		private int sendSequence;
+		private int receiveSequence;
+
+		private Player(Match match, SocketChannel channel, int color) {
+			this.match = match;
+			this.channel = channel;
+			this.color = color;
+		}
+	}
+
+	/**
+	 * Returns the number of open connections, including one waiting for an
+	 * opponent.
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Returns the number of matches still connected.
+	 */
+	public int getActiveMatches() {
+		return activeMatches.get();
+	}
+
+	/**
+	 * Returns the number of matches played to a win or a full board.
+	 */
+	public long getFinishedMatches() {
+		return finishedMatches.get();
+	}
+
+	/**
+	 * Returns the number of moves checked and forwarded.
+	 */
+	public long getMovesRelayed() {
+		return movesRelayed.get();
+	}
+
+	/**
+	 * Returns the number of spectators watching a match.
+	 */
+	public int getSpectators() {
+		return spectatorCounters.watching.get();
+	}
+
+	/**
+	 * Returns the number of move frames sent to spectators.
+	 */
+	public long getSpectatorFrames() {
+		return spectatorCounters.bytes.get() / MoveCodec.FRAME_BYTES;
+	}
+
+	/**
+	 * Returns the number of spectators closed for falling behind.
+	 */
+	public long getSpectatorsDropped() {
+		return spectatorCounters.dropped.get();
+	}
+
+	/**
+	 * Returns the number of times a spectator was sent its match again.
+	 */
+	public long getSpectatorResyncs() {
+		return spectatorCounters.resynced.get();
+	}
+
+	/**
+	 * Returns a one line summary of the server's load. The relay latency is the
+	 * time to check and forward one move, read while the loops are running, so it
+	 * is approximate.
+	 */
+	public String report() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		LatencyHistogram relay = new LatencyHistogram();
+		for (EventLoop loop : loops) {
+			relay.add(loop.relayLatency);
+		}
+		return String.format(
+				"connections %d (%.1f per core), matches %d active %d finished, moves %d, relay %s, spectators %d frames %d dropped %d resynced %d",
+				getConnections(), (double) getConnections() / cores, getActiveMatches(), getFinishedMatches(),
+				getMovesRelayed(), relay.summary(), getSpectators(), getSpectatorFrames(), getSpectatorsDropped(),
+				getSpectatorResyncs());
+	}
+
+	/**
+	 * Runs a server from the command line, printing its load every ten seconds.
+	 *
+	 * @param args optional port, number of event loop threads and spectator port
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int spectatorPort = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SPECTATOR_PORT;
+		Connect4Server server = new Connect4Server(port, threads);
+		server.start();
+		server.startSpectators(spectatorPort);
+		System.out.println("Listening on port " + server.getPort() + " with " + threads + " event loops, spectators on port "
+				+ server.getSpectatorPort());
+		while (true) {
+			Thread.sleep(10_000);
+			System.out.println(server.report());
+		}
+	}
+}
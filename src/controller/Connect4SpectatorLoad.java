@@ -0,0 +1,232 @@
+package controller;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.Connect4Model;
+
+/**
+ * This Class measures how well a Connect4Server streams matches to spectators.
+ * It starts a server in process and plays matches one at a time between two
+ * random players, each watched by the same number of spectators read from one
+ * thread through a Selector. It reports the frames delivered to spectators per
+ * second, the time from a player sending a move to a spectator receiving it,
+ * and the heap taken by each spectator connection. Both ends of the spectator
+ * connections live in this process, so the heap figure is for the two ends
+ * together.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4SpectatorLoad {
+
+	private final Connect4Server server;
+	private final int spectators;
+	private final int matches;
+	private final Selector selector;
+	private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger closed = new AtomicInteger();
+	private final LatencyHistogram fanOut = new LatencyHistogram();
+	// Send time of each move of the current match, by spectator sequence number.
+	private final long[] sentNanos = new long[Connect4Model.DEFAULT_ROWS * Connect4Model.DEFAULT_COLUMNS + 1];
+	private volatile boolean running = true;
+	private long frames;
+	private long playNanos;
+	private long heapPerSpectator;
+
+	/**
+	 * Creates a load test.
+	 *
+	 * @param server     a started server with spectators started
+	 * @param spectators spectators watching each match
+	 * @param matches    number of matches to play
+	 */
+	public Connect4SpectatorLoad(Connect4Server server, int spectators, int matches) throws IOException {
+		this.server = server;
+		this.spectators = spectators;
+		this.matches = matches;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Plays the matches and returns once every spectator has been closed.
+	 */
+	public void run() throws IOException, InterruptedException {
+		Thread reader = new Thread(this::readSpectators, "connect4-spectator-load");
+		reader.setDaemon(true);
+		reader.start();
+		InetSocketAddress players = new InetSocketAddress("localhost", server.getPort());
+		InetSocketAddress watch = new InetSocketAddress("localhost", server.getSpectatorPort());
+		for (int match = 1; match <= matches; match++) {
+			SocketChannel first = SocketChannel.open(players);
+			SocketChannel second = SocketChannel.open(players);
+			readFrame(first);
+			readFrame(second);
+			long before = match == 1 ? usedHeap() : 0;
+			int closedBefore = closed.get();
+			for (int count = 0; count < spectators; count++) {
+				SocketChannel channel = SocketChannel.open(watch);
+				ByteBuffer request = ByteBuffer.allocate(4).putInt(0, match);
+				while (request.hasRemaining()) {
+					channel.write(request);
+				}
+				added.add(channel);
+				selector.wakeup();
+			}
+			while (server.getSpectators() < spectators) {
+				Thread.sleep(1);
+			}
+			if (match == 1) {
+				heapPerSpectator = (usedHeap() - before) / spectators;
+			}
+			long start = System.nanoTime();
+			play(first, second);
+			while (closed.get() - closedBefore < spectators) {
+				Thread.sleep(1);
+			}
+			playNanos += System.nanoTime() - start;
+			first.close();
+			second.close();
+		}
+		running = false;
+		selector.wakeup();
+		reader.join();
+	}
+
+	/**
+	 * Plays random moves until the match is over.
+	 */
+	private void play(SocketChannel first, SocketChannel second) throws IOException {
+		Connect4Model model = new Connect4Model();
+		SocketChannel[] players = { first, second };
+		ByteBuffer frame = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+		int color = 1;
+		for (int move = 0; true; move++) {
+			int column = ThreadLocalRandom.current().nextInt(model.getYLEN());
+			while (model.getRowPos(column) < 0) {
+				column = (column + 1) % model.getYLEN();
+			}
+			boolean over = model.isWinningMove(column, color);
+			model.move(column, color);
+			over |= model.isBoardFull();
+			frame.clear();
+			MoveCodec.encode(frame, move / 2, column, color);
+			frame.flip();
+			sentNanos[move + 1] = System.nanoTime();
+			while (frame.hasRemaining()) {
+				players[color - 1].write(frame);
+			}
+			if (over) {
+				return;
+			}
+			readFrame(players[2 - color]);
+			color = 3 - color;
+		}
+	}
+
+	private static void readFrame(SocketChannel channel) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+		while (frame.hasRemaining()) {
+			if (channel.read(frame) < 0) {
+				throw new IOException("Match over");
+			}
+		}
+	}
+
+	/**
+	 * Reads every spectator until the test ends.
+	 */
+	private void readSpectators() {
+		ByteBuffer in = ByteBuffer.allocate(4096);
+		try {
+			while (running) {
+				selector.select();
+				for (SocketChannel channel = added.poll(); channel != null; channel = added.poll()) {
+					channel.configureBlocking(false);
+					channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(MoveCodec.FRAME_BYTES));
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					SocketChannel channel = (SocketChannel) key.channel();
+					in.clear();
+					// Frames split across reads are put back together in the key's buffer.
+					ByteBuffer partial = (ByteBuffer) key.attachment();
+					in.put(partial.flip());
+					partial.clear();
+					int count = channel.read(in);
+					in.flip();
+					long now = System.nanoTime();
+					int frame;
+					while ((frame = MoveCodec.decode(in)) >= 0) {
+						int sequence = MoveCodec.sequence(frame);
+						if (MoveCodec.column(frame) < MoveCodec.RESYNC_COLUMN && sequence < sentNanos.length) {
+							fanOut.recordNanos(now - sentNanos[sequence]);
+						}
+						frames++;
+					}
+					partial.put(in);
+					if (count < 0) {
+						key.cancel();
+						channel.close();
+						closed.incrementAndGet();
+					}
+				}
+			}
+			selector.close();
+		} catch (IOException e) {
+			System.err.println("Something went wrong with the network! " + e.getMessage());
+		}
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int pass = 0; pass < 3; pass++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Returns a summary of the run.
+	 */
+	public String report() {
+		double seconds = playNanos / 1e9;
+		return String.format(
+				"%d matches, %d spectators each, %d frames in %.2f s (%.0f frames/sec), fan out %s, heap per spectator %d bytes",
+				matches, spectators, frames, seconds, frames / seconds, fanOut.summary(), heapPerSpectator);
+	}
+
+	/**
+	 * Runs the test from the command line.
+	 *
+	 * @param args spectators per match, matches, drop or resync, and queue length
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int spectators = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int matches = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Connect4Server.SlowSpectatorPolicy policy = args.length > 2 && args[2].equalsIgnoreCase("drop")
+				? Connect4Server.SlowSpectatorPolicy.DROP
+				: Connect4Server.SlowSpectatorPolicy.RESYNC;
+		int queue = args.length > 3 ? Integer.parseInt(args[3]) : Connect4Server.DEFAULT_SPECTATOR_QUEUE;
+		Connect4Server server = new Connect4Server(0, Runtime.getRuntime().availableProcessors());
+		server.setSpectatorPolicy(policy, queue);
+		server.start();
+		server.startSpectators(0);
+		Connect4SpectatorLoad load = new Connect4SpectatorLoad(server, spectators, matches);
+		load.run();
+		System.out.println(load.report());
+		System.out.println(server.report());
+		server.close();
+	}
+}
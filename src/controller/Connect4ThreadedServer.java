@@ -0,0 +1,325 @@
+package controller;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This Class hosts many games at once like Connect4Server, with the same
+ * pairing and the same frames, but serves each connection with one long-lived
+ * task doing blocking reads. The tasks run on a configurable executor, by
+ * default ConnectionExecutors.perConnection, so each connection gets a virtual
+ * thread where the runtime has them. A move is checked and played while the
+ * reading task holds its match's lock, and written to the opponent after the
+ * lock is released, holding only that player's write lock. The locks are
+ * ReentrantLocks rather than monitors, so a virtual thread blocked writing to a
+ * slow client does not pin its carrier thread.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4ThreadedServer implements Closeable {
+
+	private final int port;
+	private final ExecutorService executor;
+	private ServerSocket serverSocket;
+	private Thread acceptThread;
+	private volatile boolean running;
+	private Socket waiting;
+	// The kind of thread the last connection was served on.
+	private volatile String threadKind = "no";
+
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger activeMatches = new AtomicInteger();
+	private final AtomicLong finishedMatches = new AtomicLong();
+	private final AtomicLong movesRelayed = new AtomicLong();
+
+	/**
+	 * Creates a server giving each connection a virtual thread where available.
+	 *
+	 * @param port port to listen on, 0 for any free port
+	 */
+	public Connect4ThreadedServer(int port) {
+		this(port, ConnectionExecutors.perConnection("connect4-connection"));
+	}
+
+	/**
+	 * Creates a server. It does not listen until start is called.
+	 *
+	 * @param port     port to listen on, 0 for any free port
+	 * @param executor runs one task per connection for as long as it is open
+	 */
+	public Connect4ThreadedServer(int port, ExecutorService executor) {
+		this.port = port;
+		this.executor = executor;
+	}
+
+	/**
+	 * Binds the port and starts accepting connections.
+	 *
+	 * @throws IOException if the port can not be bound
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(port, 1024);
+		running = true;
+		acceptThread = new Thread(this::acceptConnections, "connect4-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts connections until the server is closed, pairing each one with the
+	 * connection before it.
+	 */
+	private void acceptConnections() {
+		while (running) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connections.incrementAndGet();
+				if (waiting == null) {
+					waiting = socket;
+				} else {
+					begin(new Match(waiting, socket));
+					waiting = null;
+				}
+			} catch (IOException e) {
+				if (running) {
+					System.err.println("Something went wrong with the network! " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the start frames and starts a reading task for each player.
+	 */
+	private void begin(Match match) {
+		activeMatches.incrementAndGet();
+		try {
+			for (Player player : match.players) {
+				send(player, MoveCodec.START_COLUMN, player.color);
+			}
+			for (Player player : match.players) {
+				executor.execute(() -> serve(player));
+			}
+		} catch (IOException e) {
+			end(match);
+		}
+	}
+
+	/**
+	 * Reads one player's moves until the match ends.
+	 */
+	private void serve(Player player) {
+		threadKind = ConnectionExecutors.isVirtual(Thread.currentThread()) ? "virtual" : "platform";
+		Match match = player.match;
+		byte[] frame = new byte[MoveCodec.FRAME_BYTES];
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(player.socket.getInputStream()));
+			boolean over = false;
+			while (over == false) {
+				in.readFully(frame);
+				int column;
+				match.lock.lock();
+				try {
+					column = relay(player, MoveCodec.decode(frame, 0));
+					over = match.isOver();
+				} finally {
+					match.lock.unlock();
+				}
+				send(match.opponent(player), column, player.color);
+			}
+		} catch (IOException e) {
+			// The player left or broke the protocol, which ends the match.
+		}
+		end(match);
+	}
+
+	/**
+	 * Checks a move against the match's model and plays it, returning the column
+	 * to forward. The caller holds the match's lock.
+	 */
+	private int relay(Player player, int frame) throws IOException {
+		Match match = player.match;
+		if (MoveCodec.sequence(frame) != player.receiveSequence || MoveCodec.color(frame) != player.color) {
+			throw new ProtocolException("Illegal move");
+		}
+		player.receiveSequence = (player.receiveSequence + 1) & 0xFFFF;
+		int column = MoveCodec.column(frame);
+		boolean ended = match.play(player.color, column);
+		movesRelayed.incrementAndGet();
+		if (ended) {
+			finishedMatches.incrementAndGet();
+		}
+		return column;
+	}
+
+	/**
+	 * Writes a frame to a player. The player's write lock keeps the sequence
+	 * numbers in the order the frames are written.
+	 */
+	private void send(Player player, int column, int color) throws IOException {
+		player.writeLock.lock();
+		try {
+			MoveCodec.encode(player.frame, 0, player.sendSequence, column, color);
+			player.sendSequence = (player.sendSequence + 1) & 0xFFFF;
+			player.out.write(player.frame);
+		} finally {
+			player.writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes both connections of a match, which also stops the other player's
+	 * reading task.
+	 */
+	private void end(Match match) {
+		match.lock.lock();
+		try {
+			if (match.closed) {
+				return;
+			}
+			match.closed = true;
+			match.finish();
+		} finally {
+			match.lock.unlock();
+		}
+		activeMatches.decrementAndGet();
+		for (Player player : match.players) {
+			connections.decrementAndGet();
+			try {
+				player.socket.close();
+			} catch (IOException e) {
+				// Already gone.
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting connections. Matches being played are left to finish.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		if (waiting != null) {
+			waiting.close();
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Two connections playing on one model.
+	 */
+	private static class Match extends HostedMatch {
+		private final Player[] players;
+		private final ReentrantLock lock = new ReentrantLock();
+		private boolean closed;
+
+		private Match(Socket first, Socket second) throws IOException {
+			players = new Player[] { new Player(this, first, 1), new Player(this, second, 2) };
+		}
+
+		private Player opponent(Player player) {
+			return players[0] == player ? players[1] : players[0];
+		}
+	}
+
+	/**
+	 * One connection.
+	 */
+	private static class Player {
+		private final Match match;
+		private final Socket socket;
+		private final OutputStream out;
+		private final int color;
+		private final byte[] frame = new byte[MoveCodec.FRAME_BYTES];
+		private final ReentrantLock writeLock = new ReentrantLock();
+		private int sendSequence;
+		private int receiveSequence;
+
+		private Player(Match match, Socket socket, int color) throws IOException {
+			this.match = match;
+			this.socket = socket;
+			this.out = socket.getOutputStream();
+			this.color = color;
+		}
+	}
+
+	/**
+	 * Returns the number of open connections, including one waiting for an
+	 * opponent.
+	 */
+	public int getConnections() {
+		return connections.get();
+	}
+
+	/**
+	 * Returns the number of matches still connected.
+	 */
+	public int getActiveMatches() {
+		return activeMatches.get();
+	}
+
+	/**
+	 * Returns the number of matches played to a win or a full board.
+	 */
+	public long getFinishedMatches() {
+		return finishedMatches.get();
+	}
+
+	/**
+	 * Returns the number of moves checked and forwarded.
+	 */
+	public long getMovesRelayed() {
+		return movesRelayed.get();
+	}
+
+	/**
+	 * Returns the kind of thread the executor served the last connection on:
+	 * "virtual", "platform", or "no" before any match has started.
+	 */
+	public String getThreadKind() {
+		return threadKind;
+	}
+
+	/**
+	 * Returns a one line summary of the server's load.
+	 */
+	public String report() {
+		return String.format("connections %d (%s threads), matches %d active %d finished, moves %d",
+				getConnections(), threadKind, getActiveMatches(), getFinishedMatches(), getMovesRelayed());
+	}
+
+	/**
+	 * Runs a server from the command line, printing its load every ten seconds.
+	 *
+	 * @param args optional port
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : Connect4Server.DEFAULT_PORT;
+		Connect4ThreadedServer server = new Connect4ThreadedServer(port);
+		server.start();
+		System.out.println("Listening on port " + server.getPort() + " with a thread per connection");
+		while (true) {
+			Thread.sleep(10_000);
+			System.out.println(server.report());
+		}
+	}
+}
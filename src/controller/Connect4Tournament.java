@@ -0,0 +1,470 @@
+package controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import engine.Connect4Engine;
+import engine.MonteCarloSearch;
+import engine.Ponderer;
+import engine.TranspositionTable;
+import model.Connect4Model;
+import model.GameRecordStore;
+
+/**
+ * This Class plays computer against computer games without the GUI or the
+ * network. Each thread drives its own Connect4Model with its own pair of
+ * players, the two players swap colors every game so neither always moves
+ * first, and the results of all threads are combined at the end. It reports
+ * games and moves per second, win and draw rates and the latency of single
+ * moves, which is used to check engine strength between versions and to size
+ * hosts.
+ *
+ * A player is described by a short spec: "random", "depth:N" for a fixed depth
+ * search, "nodes:N" for a node budget, "time:N" for N milliseconds a move or
+ * "ponder:N" for a depth N search that ponders on its own thread during the
+ * other player's turn, or "mcts:N" for N milliseconds a move of single threaded
+ * Monte Carlo Tree Search. The ponder hit rate and the search time it saved are
+ * reported, which is only fair to the other player with a spare core.
+ * Given a GameRecordStore every game played is archived in it. Games are played
+ * on the standard board unless setBoard picks another size.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4Tournament {
+
+	// Every thread has its own players, so keep each Monte Carlo tree and
+	// transposition table small.
+	private static final long MONTE_CARLO_MEMORY = 16L * 1024 * 1024;
+	static final int TABLE_MEGABYTES = 4;
+	private static final List<String> KINDS = List.of("depth", "nodes", "time", "mcts", "ponder");
+
+	/**
+	 * Picks a column for the color to move. Implementations are used by one thread
+	 * only.
+	 */
+	public interface Player {
+		int chooseMove(Connect4Model model, int color);
+	}
+
+	private final String specA;
+	private final String specB;
+	private final long games;
+	private final int threads;
+
+	private long winsA;
+	private long winsB;
+	private long draws;
+	private long firstMoverWins;
+	private long moves;
+	private long elapsedNanos;
+	private LatencyHistogram latencyA = new LatencyHistogram();
+	private LatencyHistogram latencyB = new LatencyHistogram();
+	// Ponder hits, misses and saved milliseconds of A and B.
+	private final long[] ponderStats = new long[6];
+	private GameRecordStore records;
+	private int rows = Connect4Model.DEFAULT_ROWS;
+	private int columns = Connect4Model.DEFAULT_COLUMNS;
+	private int winLength = Connect4Model.DEFAULT_WIN_LENGTH;
+
+	/**
+	 * Creates a tournament.
+	 *
+	 * @param specA   spec of the first player
+	 * @param specB   spec of the second player
+	 * @param games   number of games to play
+	 * @param threads number of games played at once
+	 */
+	public Connect4Tournament(String specA, String specB, long games, int threads) {
+		this.specA = specA;
+		this.specB = specB;
+		this.games = games;
+		this.threads = Math.max(1, threads);
+		// Fail on a bad spec before any thread starts, without building a player.
+		checkSpec(specA);
+		checkSpec(specB);
+	}
+
+	/**
+	 * Checks that a spec names a known player with a number where one is needed.
+	 * The number must be positive, and a depth must be below MAX_PLY since the
+	 * transposition table keeps depths in a byte.
+	 *
+	 * @param spec the player spec
+	 * @throws IllegalArgumentException if the spec is not a player
+	 */
+	public static void checkSpec(String spec) {
+		if (spec.equals("random")) {
+			return;
+		}
+		String[] parts = spec.split(":");
+		if (parts.length != 2 || KINDS.contains(parts[0]) == false) {
+			throw new IllegalArgumentException("Unknown player: " + spec);
+		}
+		long value = Long.parseLong(parts[1]);
+		if (value <= 0) {
+			throw new IllegalArgumentException("Player needs a positive number: " + spec);
+		}
+		boolean depth = parts[0].equals("depth") || parts[0].equals("ponder");
+		if (depth && value >= Connect4Engine.MAX_PLY) {
+			throw new IllegalArgumentException("Depth must be below " + Connect4Engine.MAX_PLY + ": " + spec);
+		}
+	}
+
+	/**
+	 * Creates a player from a spec. Search players get a transposition table of
+	 * TABLE_MEGABYTES.
+	 *
+	 * @param spec the player spec
+	 * @return a new player
+	 */
+	public static Player createPlayer(String spec) {
+		checkSpec(spec);
+		if (spec.equals("random")) {
+			return Connect4Tournament::randomMove;
+		}
+		String[] parts = spec.split(":");
+		long value = Long.parseLong(parts[1]);
+		Connect4Engine engine;
+		switch (parts[0]) {
+		case "depth":
+			engine = new Connect4Engine((int) value, 0);
+			break;
+		case "nodes":
+			engine = new Connect4Engine(Connect4Engine.DEFAULT_DEPTH * 4, value);
+			break;
+		case "time":
+			engine = new Connect4Engine(64, 0);
+			break;
+		case "mcts":
+			MonteCarloSearch search = new MonteCarloSearch(1, MONTE_CARLO_MEMORY);
+			return (model, color) -> search.bestMoveTimed(model, color, value);
+		case "ponder":
+			engine = new Connect4Engine((int) value, 0);
+			engine.setTranspositionTable(new TranspositionTable(TABLE_MEGABYTES));
+			return new PonderingPlayer(engine);
+		default:
+			throw new IllegalArgumentException("Unknown player: " + spec);
+		}
+		engine.setTranspositionTable(new TranspositionTable(TABLE_MEGABYTES));
+		if (parts[0].equals("time")) {
+			return (model, color) -> engine.bestMoveTimed(model, color, value);
+		}
+		return engine::bestMove;
+	}
+
+	/**
+	 * A search player that ponders while the other player chooses its move.
+	 */
+	private static class PonderingPlayer implements Player {
+		private final Connect4Engine engine;
+		private final Ponderer ponderer;
+		// One daemon thread, which ends when the player stops being used.
+		private final ThreadPoolExecutor executor = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), (runnable) -> {
+					Thread thread = new Thread(runnable, "connect4-ponder");
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		private PonderingPlayer(Connect4Engine engine) {
+			this.engine = engine;
+			this.ponderer = new Ponderer(engine);
+		}
+
+		@Override
+		public int chooseMove(Connect4Model model, int color) {
+			int move = ponderer.take(model, color);
+			if (move < 0) {
+				move = engine.bestMove(model, color);
+			}
+			if (move >= 0 && model.isWinningMove(move, color) == false) {
+				Connect4Model after = model.copy();
+				after.move(move, color);
+				ponderer.start(after, color, executor);
+			}
+			return move;
+		}
+	}
+
+	/**
+	 * Plays a uniformly random legal column.
+	 */
+	private static int randomMove(Connect4Model model, int color) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int width = model.getYLEN();
+		int col = random.nextInt(width);
+		while (model.getRowPos(col) < 0) {
+			col = col + 1 == width ? 0 : col + 1;
+		}
+		return col;
+	}
+
+	/**
+	 * Sets the board the games are played on. It must be set before run.
+	 *
+	 * @param rows      number of rows
+	 * @param columns   number of columns
+	 * @param winLength pieces in a line needed to win
+	 */
+	public void setBoard(int rows, int columns, int winLength) {
+		// Fail on a bad size before any thread starts.
+		new Connect4Model(rows, columns, winLength);
+		this.rows = rows;
+		this.columns = columns;
+		this.winLength = winLength;
+	}
+
+	/**
+	 * Sets a store to archive every game in. It must be set before run.
+	 *
+	 * @param records the store, or null to keep no record
+	 */
+	public void setRecordStore(GameRecordStore records) {
+		this.records = records;
+	}
+
+	/**
+	 * Plays all the games and keeps the combined results.
+	 */
+	public void run() throws InterruptedException {
+		if (records != null && columns > GameRecordStore.MAX_COLUMNS) {
+			throw new IllegalStateException("Game records hold boards of at most " + GameRecordStore.MAX_COLUMNS
+					+ " columns");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		AtomicLong next = new AtomicLong();
+		List<Future<Worker>> running = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int index = 0; index < threads; index++) {
+			running.add(pool.submit(() -> {
+				Worker worker = new Worker();
+				for (long game = next.getAndIncrement(); game < games; game = next.getAndIncrement()) {
+					worker.play(game % 2 == 0);
+				}
+				return worker;
+			}));
+		}
+		try {
+			for (Future<Worker> future : running) {
+				Worker worker = future.get();
+				winsA += worker.winsA;
+				winsB += worker.winsB;
+				draws += worker.draws;
+				firstMoverWins += worker.firstMoverWins;
+				moves += worker.moves;
+				latencyA.add(worker.latencyA);
+				latencyB.add(worker.latencyB);
+				addPonderStats(worker.playerA, 0);
+				addPonderStats(worker.playerB, 3);
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A game thread failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		elapsedNanos = System.nanoTime() - start;
+	}
+
+	private void addPonderStats(Player player, int offset) {
+		if (player instanceof PonderingPlayer) {
+			Ponderer ponderer = ((PonderingPlayer) player).ponderer;
+			ponderer.stop();
+			ponderStats[offset] += ponderer.getHits();
+			ponderStats[offset + 1] += ponderer.getMisses();
+			ponderStats[offset + 2] += ponderer.getSavedMillis();
+		}
+	}
+
+	/**
+	 * The games and results of one thread.
+	 */
+	private class Worker {
+		private final Player playerA = createPlayer(specA);
+		private final Player playerB = createPlayer(specB);
+		private final LatencyHistogram latencyA = new LatencyHistogram();
+		private final LatencyHistogram latencyB = new LatencyHistogram();
+		private long winsA;
+		private long winsB;
+		private long draws;
+		private long firstMoverWins;
+		private long moves;
+		private int[] gameColumns;
+
+		/**
+		 * Plays one game, color 1 always moving first.
+		 */
+		private void play(boolean aMovesFirst) {
+			Connect4Model model = new Connect4Model(rows, columns, winLength);
+			if (gameColumns == null) {
+				gameColumns = new int[model.getXLEN() * model.getYLEN()];
+			}
+			int color = 1;
+			int played = 0;
+			boolean aToMove = aMovesFirst;
+			while (true) {
+				long start = System.nanoTime();
+				int col = aToMove ? playerA.chooseMove(model, color) : playerB.chooseMove(model, color);
+				(aToMove ? latencyA : latencyB).recordNanos(System.nanoTime() - start);
+				boolean wins = model.isWinningMove(col, color);
+				model.move(col, color);
+				gameColumns[played++] = col;
+				moves++;
+				if (wins) {
+					if (aToMove) {
+						winsA++;
+					} else {
+						winsB++;
+					}
+					if (color == 1) {
+						firstMoverWins++;
+					}
+					record(played, color);
+					return;
+				}
+				if (model.isBoardFull()) {
+					draws++;
+					record(played, 3);
+					return;
+				}
+				color = 3 - color;
+				aToMove = !aToMove;
+			}
+		}
+
+		private void record(int played, int result) {
+			if (records != null) {
+				try {
+					records.append(gameColumns, played, result);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a report of the results.
+	 */
+	public String report() {
+		double seconds = elapsedNanos / 1e9;
+		long played = winsA + winsB + draws;
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%s vs %s: %d games on %d threads in %.2f s%n", specA, specB, played, threads,
+				seconds));
+		out.append(String.format("games/sec %.1f, moves/sec %.1f%n", played / seconds, moves / seconds));
+		out.append(String.format("%s wins %.2f%%, %s wins %.2f%%, draws %.2f%%, first mover wins %.2f%%%n", specA,
+				percent(winsA, played), specB, percent(winsB, played), percent(draws, played),
+				percent(firstMoverWins, played)));
+		out.append(String.format("%s move latency %s%n", specA, latencyA.summary()));
+		out.append(String.format("%s move latency %s%n", specB, latencyB.summary()));
+		for (int offset = 0; offset < ponderStats.length; offset += 3) {
+			long pondered = ponderStats[offset] + ponderStats[offset + 1];
+			if (pondered > 0) {
+				out.append(String.format("%s ponder hits %.2f%% of %d moves, %d ms of search saved%n",
+						offset == 0 ? specA : specB, percent(ponderStats[offset], pondered), pondered,
+						ponderStats[offset + 2]));
+			}
+		}
+		return out.toString();
+	}
+
+	private static double percent(long count, long total) {
+		return total == 0 ? 0 : 100.0 * count / total;
+	}
+
+	/**
+	 * Returns the games won by player A.
+	 */
+	public long getWinsA() {
+		return winsA;
+	}
+
+	/**
+	 * Returns the games won by player B.
+	 */
+	public long getWinsB() {
+		return winsB;
+	}
+
+	/**
+	 * Returns the games that filled the board.
+	 */
+	public long getDraws() {
+		return draws;
+	}
+
+	/**
+	 * Returns the moves played in all games.
+	 */
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the move latencies of player A.
+	 */
+	public LatencyHistogram getLatencyA() {
+		return latencyA;
+	}
+
+	/**
+	 * Returns the move latencies of player B.
+	 */
+	public LatencyHistogram getLatencyB() {
+		return latencyB;
+	}
+
+	/**
+	 * Returns the share of player A's moves that pondering had found, 0 to 1, or
+	 * 0 if A does not ponder.
+	 */
+	public double getPonderHitRateA() {
+		long pondered = ponderStats[0] + ponderStats[1];
+		return pondered == 0 ? 0 : (double) ponderStats[0] / pondered;
+	}
+
+	/**
+	 * Runs a tournament from the command line.
+	 *
+	 * @param args player A spec, player B spec, games and optionally threads, a
+	 *             file to archive the games in ("-" for none) and a board given
+	 *             as ROWSxCOLUMNS or ROWSxCOLUMNSxWINLENGTH
+	 */
+	public static void main(String[] args) throws InterruptedException, IOException {
+		if (args.length < 3) {
+			System.err.println(
+					"Usage: Connect4Tournament <playerA> <playerB> <games> [threads] [recordFile|-] [board]");
+			System.err.println("Players: random, depth:N, nodes:N, time:MILLIS, ponder:N, mcts:MILLIS");
+			return;
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		Connect4Tournament tournament = new Connect4Tournament(args[0], args[1], Long.parseLong(args[2]), threads);
+		if (args.length > 5) {
+			String[] board = args[5].split("x");
+			int length = board.length > 2 ? Integer.parseInt(board[2]) : Connect4Model.DEFAULT_WIN_LENGTH;
+			tournament.setBoard(Integer.parseInt(board[0]), Integer.parseInt(board[1]), length);
+		}
+		GameRecordStore records = args.length > 4 && args[4].equals("-") == false
+				? GameRecordStore.open(Paths.get(args[4]))
+				: null;
+		tournament.setRecordStore(records);
+		tournament.run();
+		System.out.print(tournament.report());
+		if (records != null) {
+			System.out.println(records.size() + " games archived in " + args[4]);
+			records.close();
+		}
+	}
+}
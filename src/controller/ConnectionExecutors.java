@@ -0,0 +1,95 @@
+package controller;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This Class creates the executors that run one long-lived task per network
+ * connection. On a Java runtime with virtual threads each connection gets a
+ * virtual thread, so blocking reads scale to tens of thousands of connections;
+ * on older runtimes it falls back to daemon platform threads. The project
+ * compiles for Java 17, so virtual threads are looked up at run time.
+ *
+ * @author Todd Noecker
+ */
+public final class ConnectionExecutors {
+
+	private static final Method VIRTUAL_FACTORY = findVirtualFactory();
+	private static final Method IS_VIRTUAL = findIsVirtual();
+
+	private ConnectionExecutors() {
+	}
+
+	/**
+	 * Returns true if this runtime can start virtual threads.
+	 */
+	public static boolean isVirtualAvailable() {
+		return VIRTUAL_FACTORY != null;
+	}
+
+	/**
+	 * Returns true if a thread is a virtual thread.
+	 *
+	 * @param thread the thread, usually the current one
+	 */
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns an executor starting a virtual thread for each task, or a platform
+	 * thread if virtual threads are not available.
+	 *
+	 * @param name prefix of the platform thread names
+	 */
+	public static ExecutorService perConnection(String name) {
+		if (VIRTUAL_FACTORY != null) {
+			try {
+				return (ExecutorService) VIRTUAL_FACTORY.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				// Fall back to platform threads.
+			}
+		}
+		return platformThreads(name);
+	}
+
+	/**
+	 * Returns an executor starting a daemon platform thread for each task that
+	 * finds no idle one.
+	 *
+	 * @param name prefix of the thread names
+	 */
+	public static ExecutorService platformThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static Method findIsVirtual() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Method findVirtualFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
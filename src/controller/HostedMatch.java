@@ -0,0 +1,70 @@
+package controller;
+
+import java.net.ProtocolException;
+
+import model.Connect4Model;
+import model.MoveListener;
+
+/**
+ * This Class holds the rules a server enforces on one hosted match. Color 1
+ * moves first, the players alternate, and a match is over after a win, a full
+ * board or a call to finish. It is not thread safe; a server that reads the two
+ * players on different threads must lock the match.
+ *
+ * @author Todd Noecker
+ */
+class HostedMatch {
+
+	private final Connect4Model model = new Connect4Model();
+	private int toMove = 1;
+	private boolean over;
+
+	/**
+	 * Checks a move and plays it.
+	 *
+	 * @param color  color of the player moving
+	 * @param column column played
+	 * @return true if the move ended the match
+	 * @throws ProtocolException if the move is out of turn or not legal
+	 */
+	boolean play(int color, int column) throws ProtocolException {
+		if (over || color != toMove || column >= model.getYLEN() || model.getRowPos(column) < 0) {
+			throw new ProtocolException("Illegal move");
+		}
+		boolean wins = model.isWinningMove(column, color);
+		model.move(column, color);
+		toMove = 3 - color;
+		over = wins || model.isBoardFull();
+		return over;
+	}
+
+	/**
+	 * Adds a listener for the moves played.
+	 *
+	 * @param listener the listener
+	 */
+	void addMoveListener(MoveListener listener) {
+		model.addMoveListener(listener);
+	}
+
+	/**
+	 * Returns the model the match is played on.
+	 */
+	Connect4Model getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns true once the match has ended.
+	 */
+	boolean isOver() {
+		return over;
+	}
+
+	/**
+	 * Ends the match without a result.
+	 */
+	void finish() {
+		over = true;
+	}
+}
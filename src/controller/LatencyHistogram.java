@@ -0,0 +1,161 @@
+package controller;
+
+/**
+ * This Class records latencies in microseconds for percentile reports. Values
+ * below 1024 us get a bucket each; larger values share 512 buckets per power of
+ * two, which keeps the error under 0.2%. Latencies of 2^27 us, a little over
+ * two minutes, and above all count in the last bucket, though getMax is still
+ * exact. The buckets of a power of two are only allocated once a value falls in
+ * it, so a histogram of fast moves stays near 8 KB however many connections
+ * keep one. Recording is a few shifts and an array increment, and histograms
+ * filled on different threads are combined with add.
+ *
+ * @author Todd Noecker
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR = 1024;
+	private static final int SUB_BITS = 9;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	// Powers of two of 2^10 us and up with buckets of their own.
+	private static final int OCTAVES = 27 - 10;
+	private static final int BUCKETS = LINEAR + OCTAVES * SUB_BUCKETS;
+
+	private final long[] counts = new long[LINEAR];
+	private final long[][] octaves = new long[OCTAVES][];
+	private long total;
+	private long max;
+	private long sum;
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void recordNanos(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int index = index(micros);
+		if (index < LINEAR) {
+			counts[index]++;
+		} else {
+			int octave = (index - LINEAR) / SUB_BUCKETS;
+			if (octaves[octave] == null) {
+				octaves[octave] = new long[SUB_BUCKETS];
+			}
+			octaves[octave][(index - LINEAR) % SUB_BUCKETS]++;
+		}
+		total++;
+		sum += micros;
+		if (micros > max) {
+			max = micros;
+		}
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one.
+	 *
+	 * @param other histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int index = 0; index < LINEAR; index++) {
+			counts[index] += other.counts[index];
+		}
+		for (int octave = 0; octave < OCTAVES; octave++) {
+			if (other.octaves[octave] == null) {
+				continue;
+			}
+			if (octaves[octave] == null) {
+				octaves[octave] = new long[SUB_BUCKETS];
+			}
+			for (int sub = 0; sub < SUB_BUCKETS; sub++) {
+				octaves[octave][sub] += other.octaves[octave][sub];
+			}
+		}
+		total += other.total;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Returns the latency at a percentile.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the latency in microseconds, 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * total);
+		long seen = 0;
+		for (int index = 0; index < BUCKETS; index++) {
+			seen += count(index);
+			if (seen >= Math.max(1, rank)) {
+				return Math.min(max, value(index));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the number of latencies recorded.
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * Returns the largest latency recorded in microseconds.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the mean latency in microseconds.
+	 */
+	public double getMean() {
+		return total == 0 ? 0 : (double) sum / total;
+	}
+
+	/**
+	 * Returns a one line summary of the usual percentiles.
+	 */
+	public String summary() {
+		return String.format("p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus", getPercentile(50),
+				getPercentile(90), getPercentile(99), getPercentile(99.9), max);
+	}
+
+	private long count(int index) {
+		if (index < LINEAR) {
+			return counts[index];
+		}
+		long[] octave = octaves[(index - LINEAR) / SUB_BUCKETS];
+		return octave == null ? 0 : octave[(index - LINEAR) % SUB_BUCKETS];
+	}
+
+	private static int index(long micros) {
+		if (micros < LINEAR) {
+			return (int) micros;
+		}
+		if (micros >= 1L << (OCTAVES + 10)) {
+			return BUCKETS - 1;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exponent - 10) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the highest value that falls in a bucket.
+	 */
+	private static long value(int index) {
+		if (index < LINEAR) {
+			return index;
+		}
+		int exponent = (index - LINEAR) / SUB_BUCKETS + 10;
+		long sub = (index - LINEAR) % SUB_BUCKETS;
+		long low = (1L << exponent) | (sub << (exponent - SUB_BITS));
+		return low + (1L << (exponent - SUB_BITS)) - 1;
+	}
+}
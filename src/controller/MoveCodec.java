@@ -0,0 +1,135 @@
+package controller;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * This Class encodes moves in the binary wire format used between two games.
+ * A move is a fixed frame of FRAME_BYTES bytes: the protocol version, a two
+ * byte sequence number that counts the moves sent on a connection and wraps at
+ * 65536, and one byte holding the column shifted left two bits with the color
+ * in the low two bits. The frame carries only what the other game needs to
+ * repeat the move, so the row of a Connect4MoveMessage is not sent.
+ *
+ * A decoded frame is returned packed in an int, read with sequence, column and
+ * color, so neither encoding nor decoding allocates.
+ *
+ * @author Todd Noecker
+ */
+public final class MoveCodec {
+
+	public static final int VERSION = 1;
+	public static final int FRAME_BYTES = 4;
+	public static final int MAX_COLUMN = 63;
+	/** A frame with this column starts a hosted match and carries the player's color. */
+	public static final int START_COLUMN = MAX_COLUMN;
+	/** A frame with this column tells a spectator the game is sent again from its start. */
+	public static final int RESYNC_COLUMN = MAX_COLUMN - 1;
+
+	private MoveCodec() {
+	}
+
+	/**
+	 * Writes a move frame into an array.
+	 *
+	 * @param out      array to write into
+	 * @param offset   index of the first byte
+	 * @param sequence sequence number of the move
+	 * @param column   column played
+	 * @param color    color played
+	 * @throws IllegalArgumentException if the column or color does not fit a frame
+	 */
+	public static void encode(byte[] out, int offset, int sequence, int column, int color) {
+		check(column, color);
+		out[offset] = (byte) VERSION;
+		out[offset + 1] = (byte) (sequence >>> 8);
+		out[offset + 2] = (byte) sequence;
+		out[offset + 3] = (byte) (column << 2 | (color & 0x3));
+	}
+
+	/**
+	 * Writes a move frame at a buffer's position.
+	 *
+	 * @param out      buffer with at least FRAME_BYTES remaining
+	 * @param sequence sequence number of the move
+	 * @param column   column played
+	 * @param color    color played
+	 * @throws IllegalArgumentException if the column or color does not fit a frame
+	 */
+	public static void encode(ByteBuffer out, int sequence, int column, int color) {
+		check(column, color);
+		out.put((byte) VERSION);
+		out.putShort((short) sequence);
+		out.put((byte) (column << 2 | (color & 0x3)));
+	}
+
+	/**
+	 * Checks that a move fits a frame instead of letting it be truncated into
+	 * another move. Colors are 1 and 2; the START_COLUMN and RESYNC_COLUMN
+	 * control frames may also carry 0.
+	 */
+	private static void check(int column, int color) {
+		if (column < 0 || column > MAX_COLUMN) {
+			throw new IllegalArgumentException("Column " + column + " does not fit a frame");
+		}
+		int lowest = column >= RESYNC_COLUMN ? 0 : 1;
+		if (color < lowest || color > 2) {
+			throw new IllegalArgumentException("Color " + color + " does not fit a frame");
+		}
+	}
+
+	/**
+	 * Reads a move frame from an array.
+	 *
+	 * @param in     array holding the frame
+	 * @param offset index of the first byte
+	 * @return the packed frame
+	 * @throws ProtocolException if the frame is from another protocol version
+	 */
+	public static int decode(byte[] in, int offset) throws ProtocolException {
+		if (in[offset] != VERSION) {
+			throw new ProtocolException("Unsupported protocol version " + in[offset]);
+		}
+		return (in[offset + 1] & 0xFF) << 16 | (in[offset + 2] & 0xFF) << 8 | (in[offset + 3] & 0xFF);
+	}
+
+	/**
+	 * Reads a move frame at a buffer's position.
+	 *
+	 * @param in buffer holding the frame
+	 * @return the packed frame, -1 if fewer than FRAME_BYTES remain
+	 * @throws ProtocolException if the frame is from another protocol version
+	 */
+	public static int decode(ByteBuffer in) throws ProtocolException {
+		if (in.remaining() < FRAME_BYTES) {
+			return -1;
+		}
+		int version = in.get();
+		if (version != VERSION) {
+			throw new ProtocolException("Unsupported protocol version " + version);
+		}
+		int sequence = in.getShort() & 0xFFFF;
+		return sequence << 8 | (in.get() & 0xFF);
+	}
+
+	/**
+	 * Returns the sequence number of a decoded frame.
+	 */
+	public static int sequence(int frame) {
+		return frame >>> 8;
+	}
+
+	/**
+	 * Returns the column of a decoded frame.
+	 */
+	public static int column(int frame) {
+		return (frame & 0xFF) >>> 2;
+	}
+
+	/**
+	 * Returns the color of a decoded frame.
+	 */
+	public static int color(int frame) {
+		return frame & 0x3;
+	}
+}
@@ -0,0 +1,242 @@
+package controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.Connect4Model;
+import model.MoveListener;
+
+/**
+ * This Class streams one hosted match to its spectators. As a listener on the
+ * match's model it encodes each move once, as a MoveCodec frame, into a log of
+ * the whole game. Every spectator reads the log through its own read-only view,
+ * which shares the bytes and only keeps a position, so a move costs the same
+ * four bytes however many spectators watch and nothing is copied per spectator.
+ * The log starts with a start frame, column MoveCodec.START_COLUMN and color 0,
+ * and a spectator joining late is sent the game so far before the live moves.
+ *
+ * A spectator whose socket stops taking data is not waited for. It falls
+ * behind by one frame for each move published while it is blocked, and once it
+ * is more than queueFrames behind the server's SlowSpectatorPolicy applies:
+ * DROP closes it, and RESYNC stops counting and, when the socket drains, sends
+ * a MoveCodec.RESYNC_COLUMN frame and the log again from its start frame, so
+ * the spectator rebuilds the board from scratch and ends up on the live move.
+ * A frame partly written is always finished first.
+ *
+ * A feed belongs to the event loop serving its match and is only used on that
+ * thread.
+ *
+ * @author Todd Noecker
+ */
+final class SpectatorFeed implements MoveListener {
+
+	private static final ByteBuffer RESYNC_FRAME;
+	static {
+		ByteBuffer frame = ByteBuffer.allocate(MoveCodec.FRAME_BYTES);
+		MoveCodec.encode(frame, 0, MoveCodec.RESYNC_COLUMN, 0);
+		frame.flip();
+		RESYNC_FRAME = frame.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Totals shared by the feeds of one server.
+	 */
+	static final class Counters {
+		final AtomicInteger watching = new AtomicInteger();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+		final AtomicLong resynced = new AtomicLong();
+	}
+
+	/**
+	 * One spectator connection.
+	 */
+	static final class Spectator {
+		final SocketChannel channel;
+		SelectionKey key;
+		// The match number the spectator asked for, read before it subscribes.
+		ByteBuffer request = ByteBuffer.allocate(4);
+		SpectatorFeed feed;
+		private ByteBuffer view;
+		private ByteBuffer marker;
+		private int behind;
+		private boolean resync;
+
+		Spectator(SocketChannel channel) {
+			this.channel = channel;
+		}
+	}
+
+	private final ByteBuffer log;
+	private final List<Spectator> spectators = new ArrayList<>();
+	private final Connect4Server.SlowSpectatorPolicy policy;
+	private final int queueFrames;
+	private final Counters counters;
+	private int frames;
+	private boolean finished;
+
+	/**
+	 * Creates a feed with room for every move of a board.
+	 */
+	SpectatorFeed(Connect4Model board, Connect4Server.SlowSpectatorPolicy policy, int queueFrames,
+			Counters counters) {
+		this.log = ByteBuffer.allocate((board.getXLEN() * board.getYLEN() + 1) * MoveCodec.FRAME_BYTES);
+		this.policy = policy;
+		this.queueFrames = queueFrames;
+		this.counters = counters;
+		MoveCodec.encode(log, frames++, MoveCodec.START_COLUMN, 0);
+	}
+
+	/**
+	 * Encodes a move into the log. The spectators are sent it by publish.
+	 */
+	@Override
+	public void moveMade(int x, int y, int color) {
+		MoveCodec.encode(log, frames++ & 0xFFFF, y, color);
+	}
+
+	/**
+	 * Adds a spectator, whose key must already be registered, and starts sending
+	 * it the game.
+	 */
+	void subscribe(Spectator spectator) {
+		spectator.feed = this;
+		spectator.request = null;
+		spectator.view = log.asReadOnlyBuffer();
+		spectator.view.flip();
+		spectators.add(spectator);
+		counters.watching.incrementAndGet();
+		flush(spectator);
+	}
+
+	/**
+	 * Sends the moves added to the log to every spectator that is keeping up.
+	 */
+	void publish() {
+		for (int index = spectators.size() - 1; index >= 0; index--) {
+			Spectator spectator = spectators.get(index);
+			if (spectator.resync) {
+				continue;
+			}
+			if ((spectator.key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+				flush(spectator);
+			} else if (++spectator.behind > queueFrames) {
+				if (policy == Connect4Server.SlowSpectatorPolicy.DROP) {
+					counters.dropped.incrementAndGet();
+					close(spectator);
+				} else {
+					spectator.resync = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes as much as a spectator's socket takes, closing it once the whole
+	 * game has been sent.
+	 */
+	void flush(Spectator spectator) {
+		try {
+			if (spectator.resync && resync(spectator) == false) {
+				return;
+			}
+			ByteBuffer view = spectator.view;
+			view.limit(log.position());
+			int start = view.position();
+			spectator.channel.write(view);
+			counters.bytes.addAndGet(view.position() - start);
+			if (view.hasRemaining()) {
+				spectator.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				return;
+			}
+			spectator.behind = 0;
+			spectator.key.interestOps(SelectionKey.OP_READ);
+			if (finished) {
+				close(spectator);
+			}
+		} catch (IOException e) {
+			close(spectator);
+		}
+	}
+
+	/**
+	 * Finishes the frame in flight, sends the resync frame and rewinds the view.
+	 * 
+	 * @return true once the spectator can be sent the log again
+	 */
+	private boolean resync(Spectator spectator) throws IOException {
+		ByteBuffer view = spectator.view;
+		int partial = view.position() % MoveCodec.FRAME_BYTES;
+		if (partial != 0) {
+			view.limit(view.position() - partial + MoveCodec.FRAME_BYTES);
+			spectator.channel.write(view);
+		}
+		if (view.position() % MoveCodec.FRAME_BYTES == 0) {
+			if (spectator.marker == null) {
+				spectator.marker = RESYNC_FRAME.duplicate();
+			}
+			spectator.channel.write(spectator.marker);
+		}
+		if (spectator.marker == null || spectator.marker.hasRemaining()) {
+			spectator.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return false;
+		}
+		spectator.marker = null;
+		spectator.resync = false;
+		spectator.behind = 0;
+		view.position(0);
+		counters.resynced.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Marks the game over and sends what is left of it. Spectators are closed
+	 * once they have been sent the last move.
+	 */
+	void finish() {
+		finished = true;
+		for (int index = spectators.size() - 1; index >= 0; index--) {
+			Spectator spectator = spectators.get(index);
+			if ((spectator.key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+				flush(spectator);
+			}
+		}
+	}
+
+	/**
+	 * Closes a spectator and stops sending it moves.
+	 */
+	void close(Spectator spectator) {
+		if (spectators.remove(spectator)) {
+			counters.watching.decrementAndGet();
+		}
+		closeChannel(spectator);
+	}
+
+	/**
+	 * Closes a spectator that is not subscribed to a feed.
+	 */
+	static void closeChannel(Spectator spectator) {
+		if (spectator.key != null) {
+			spectator.key.cancel();
+		}
+		try {
+			spectator.channel.close();
+		} catch (IOException e) {
+			// Already gone.
+		}
+	}
+
+	/**
+	 * Returns the number of spectators watching.
+	 */
+	int size() {
+		return spectators.size();
+	}
+}
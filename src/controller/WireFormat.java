@@ -0,0 +1,14 @@
+package controller;
+
+/**
+ * The formats a Connect4Controller can send moves in. Both games of a
+ * connection must use the same one.
+ *
+ * @author Todd Noecker
+ */
+public enum WireFormat {
+	/** Fixed four byte frames written by MoveCodec. */
+	BINARY,
+	/** Connect4MoveMessage objects through Java serialization, as older versions sent. */
+	SERIALIZED
+}
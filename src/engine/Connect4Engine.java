@@ -0,0 +1,659 @@
+package engine;
+
+import java.util.Arrays;
+
+import model.Connect4Model;
+
+/**
+ * This Class is the computer player for the Connect4Game. It searches the game
+ * tree with negamax and alpha-beta pruning. The search is limited by a depth, a
+ * node budget or a time budget, and can be stopped from another thread. A stop
+ * is kept until resetStop, so one made before a search starts still stops it;
+ * whoever hands a search to another thread clears it first. Under a
+ * time budget the engine deepens one ply at a time and plays the best move of
+ * the deepest search it finished. The nodes searched, the time taken and the
+ * depth reached by the last search are kept so the throughput can be measured.
+ *
+ * Alpha-beta cuts off more of the tree the sooner it tries a good move, so at
+ * each node the moves are sorted before they are searched. The transposition
+ * table's move always goes first; the rest are ordered by the heuristics
+ * switched on with setOrdering. ORDER_THREATS puts moves that make the most
+ * threats, empty cells that would complete a line, first and moves that let
+ * the opponent win on top of them last. ORDER_KILLERS tries the two moves that
+ * last caused a cutoff at the same ply next, and ORDER_HISTORY prefers columns
+ * that have caused deep cutoffs for the same color anywhere in the tree. Ties
+ * keep the static order, from the center outwards with ORDER_CENTER and left to
+ * right without it. The moves, their scores and the tables are kept in int
+ * arrays sized once per board, so sorting allocates nothing.
+ *
+ * The search copies the model once and then plays and takes back every move on
+ * that copy with Connect4Model.play and undo, so no node allocates either.
+ *
+ * Positions at the depth limit are scored by an Evaluator, which is told of
+ * every move played and taken back so its score is always ready. With
+ * setEvaluation(false) they score 0 and only wins and losses count.
+ *
+ * @author Todd Noecker
+ */
+public class Connect4Engine {
+
+	/*
+	 * A win is scored WIN_SCORE minus the ply it happens at, so quicker wins and
+	 * slower losses are preferred. Evaluations are kept below MAX_EVALUATION so
+	 * they are never taken for a win.
+	 */
+	public static final int WIN_SCORE = 1000;
+	public static final int DEFAULT_DEPTH = 8;
+	public static final long DEFAULT_NODE_BUDGET = 2_000_000;
+	public static final int MAX_PLY = 256;
+	public static final int MAX_EVALUATION = WIN_SCORE - MAX_PLY - 1;
+	private static final long STOP_CHECK_MASK = 1023;
+
+	public static final int ORDER_CENTER = 1;
+	public static final int ORDER_KILLERS = 2;
+	public static final int ORDER_HISTORY = 4;
+	public static final int ORDER_THREATS = 8;
+	public static final int ORDER_ALL = ORDER_CENTER | ORDER_KILLERS | ORDER_HISTORY | ORDER_THREATS;
+	// Measured with MoveOrderingBenchmark at depth 10 on the position corpus,
+	// history takes a few nodes off center and threats ordering while killers
+	// add more than they save, so killers are off by default.
+	public static final int DEFAULT_ORDERING = ORDER_CENTER | ORDER_HISTORY | ORDER_THREATS;
+	private static final int ORDERING_MIN_DEPTH = 3;
+	/*
+	 * Sort keys: each heuristic outranks the ones after it. History scores are
+	 * halved whenever one passes HISTORY_LIMIT, keeping them below the killers.
+	 */
+	private static final int THREAT_SCORE = 1 << 22;
+	private static final int LOSING_SCORE = -(1 << 29);
+	private static final int KILLER_SCORE = 1 << 20;
+	private static final int HISTORY_LIMIT = 1 << 18;
+
+	private int maxDepth;
+	private long nodeBudget;
+	private long nodes;
+	private long elapsedNanos;
+	private boolean aborted;
+	private volatile boolean stopRequested;
+	private int lastScore;
+	private int completedDepth;
+	private int rootMovesSearched;
+	private long deadline;
+	private int[] moveOrder;
+	private boolean moveOrderCentered;
+	private int ordering = DEFAULT_ORDERING;
+	// Per ply: a width long slice of moves and sort keys, and two killer moves.
+	private int[] moves = new int[0];
+	private int[] moveScores = new int[0];
+	private int[] killers = new int[0];
+	// Cutoff counts by color and column.
+	private final int[] history = new int[2 * Connect4Model.MAX_COLUMNS];
+	private TranspositionTable table;
+	private Evaluator evaluator;
+	private boolean evaluation = true;
+	// Whether the running search scores its leaves, fixed when it starts.
+	private boolean evaluating;
+
+	public Connect4Engine() {
+		this(DEFAULT_DEPTH, DEFAULT_NODE_BUDGET);
+	}
+
+	/**
+	 * Creates an engine with the given limits.
+	 *
+	 * @param maxDepth   deepest ply searched
+	 * @param nodeBudget most nodes visited per move, 0 for no limit
+	 */
+	public Connect4Engine(int maxDepth, long nodeBudget) {
+		this.maxDepth = maxDepth;
+		this.nodeBudget = nodeBudget;
+	}
+
+	/**
+	 * Searches the model's position and returns the column to play. The model is
+	 * not changed. If the node budget runs out the best column of the moves already
+	 * searched at the root is returned.
+	 *
+	 * @param model current game
+	 * @param color color to move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMove(Connect4Model model, int color) {
+		if (table != null) {
+			table.newSearch();
+		}
+		newSearch();
+		return searchFixed(model, color, maxDepth, 0);
+	}
+
+	/**
+	 * Searches the model's position one ply deeper at a time until the time
+	 * budget is spent, the depth limit is reached or stop is called, and returns
+	 * the best column of the deepest finished search. The depth reached is read
+	 * from getCompletedDepth.
+	 *
+	 * @param model        current game
+	 * @param color        color to move
+	 * @param budgetMillis time allowed for the move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMoveTimed(Connect4Model model, int color, long budgetMillis) {
+		if (table != null) {
+			table.newSearch();
+		}
+		newSearch();
+		return searchTimed(model, color, System.nanoTime() + budgetMillis * 1_000_000, 1, 0);
+	}
+
+	/**
+	 * Searches to a fixed depth.
+	 */
+	int searchFixed(Connect4Model model, int color, int depth, int rotation) {
+		long start = System.nanoTime();
+		nodes = 0;
+		deadline = 0;
+		Connect4Model position = model.copy();
+		loadEvaluator(position);
+		int move = searchRoot(position, color, depth, rotation, -1);
+		completedDepth = aborted ? 0 : depth;
+		elapsedNanos = System.nanoTime() - start;
+		return move;
+	}
+
+	/**
+	 * Runs the iterative deepening loop until the deadline given in System.nanoTime
+	 * units. Parallel helpers start at a later depth and a different rotation.
+	 */
+	int searchTimed(Connect4Model model, int color, long deadline, int firstDepth, int rotation) {
+		long start = System.nanoTime();
+		nodes = 0;
+		completedDepth = 0;
+		this.deadline = deadline;
+		int bestCol = -1;
+		int bestScore = 0;
+		Connect4Model position = model.copy();
+		loadEvaluator(position);
+		for (int depth = firstDepth; depth <= maxDepth; depth++) {
+			int move = searchRoot(position, color, depth, rotation, bestCol);
+			// A search cut short is only trusted if it finished the previous best move,
+			// which is always tried first.
+			if (aborted == false || rootMovesSearched > 0 || bestCol == -1) {
+				bestCol = move;
+				bestScore = lastScore;
+			}
+			if (aborted) {
+				break;
+			}
+			completedDepth = depth;
+			// A proven result will not change with more depth.
+			if (Math.abs(lastScore) > WIN_SCORE - MAX_PLY || model.isBoardFull()) {
+				break;
+			}
+		}
+		lastScore = bestScore;
+		deadline = 0;
+		elapsedNanos = System.nanoTime() - start;
+		return bestCol;
+	}
+
+	/**
+	 * Searches the root moves to the given depth. The root moves are tried in
+	 * center-first order starting at the given rotation, which lets parallel
+	 * helpers sharing a table start in different parts of the tree. A first
+	 * column other than -1 is searched before the others. The moves are played
+	 * on the model and taken back, so it must be the search's own copy.
+	 */
+	private int searchRoot(Connect4Model model, int color, int depth, int rotation, int firstCol) {
+		int[] order = getMoveOrder(model);
+		aborted = false;
+		rootMovesSearched = 0;
+
+		int bestCol = -1;
+		int alpha = -WIN_SCORE;
+		int beta = WIN_SCORE;
+		for (int col : order) {
+			if (model.getRowPos(col) < 0) {
+				continue;
+			}
+			if (bestCol == -1) {
+				bestCol = col;
+			}
+			if (model.isWinningMove(col, color)) {
+				bestCol = col;
+				alpha = WIN_SCORE;
+				break;
+			}
+		}
+		if (bestCol != -1 && alpha < WIN_SCORE) {
+			for (int index = -1; index < order.length; index++) {
+				int col = index < 0 ? firstCol : order[(index + rotation) % order.length];
+				if (col < 0 || (index >= 0 && col == firstCol) || model.getRowPos(col) < 0) {
+					continue;
+				}
+				play(model, col, color);
+				int score = -negamax(model, 3 - color, depth - 1, 1, -beta, -alpha);
+				undo(model, col, color);
+				if (aborted) {
+					break;
+				}
+				rootMovesSearched++;
+				if (score > alpha) {
+					alpha = score;
+					bestCol = col;
+				}
+			}
+		}
+		lastScore = alpha;
+		return bestCol;
+	}
+
+	/**
+	 * Asks a running search to return as soon as possible. It is safe to call
+	 * from another thread; the search returns the best root move found so far.
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Clears a stop request so the next search runs. Call it before handing a
+	 * search to another thread, so a stop made after that is not lost.
+	 */
+	public void resetStop() {
+		stopRequested = false;
+	}
+
+	/**
+	 * Returns true once stop was called or the deadline has passed.
+	 */
+	private boolean shouldStop() {
+		return stopRequested || (deadline != 0 && System.nanoTime() - deadline > 0);
+	}
+
+	/**
+	 * Scores a position for the color to move. The position is played on and
+	 * left as it was found.
+	 */
+	private int negamax(Connect4Model pos, int color, int depth, int ply, int alpha, int beta) {
+		nodes++;
+		// The stop flag is shared with other threads, so it is only read now and then.
+		if ((nodeBudget > 0 && nodes > nodeBudget) || ((nodes & STOP_CHECK_MASK) == 0 && shouldStop())) {
+			aborted = true;
+			return 0;
+		}
+		if (pos.isBoardFull()) {
+			return 0;
+		}
+		int[] order = moveOrder;
+		for (int col : order) {
+			if (pos.isWinningMove(col, color)) {
+				return WIN_SCORE - ply;
+			}
+		}
+		if (depth <= 0) {
+			if (evaluating == false) {
+				return 0;
+			}
+			int score = evaluator.evaluate(color);
+			return Math.max(-MAX_EVALUATION, Math.min(MAX_EVALUATION, score));
+		}
+		// The opponent can not do better than winning on their next move.
+		if (beta > WIN_SCORE - ply - 1) {
+			beta = WIN_SCORE - ply - 1;
+			if (alpha >= beta) {
+				return beta;
+			}
+		}
+
+		int ttMove = -1;
+		long key = 0;
+		int alphaOrig = alpha;
+		if (table != null) {
+			key = TranspositionTable.key(pos, color);
+			long entry = table.probe(key);
+			if (entry != 0) {
+				ttMove = TranspositionTable.move(entry);
+				if (TranspositionTable.depth(entry) >= depth) {
+					int score = fromTable(TranspositionTable.score(entry), ply);
+					int bound = TranspositionTable.bound(entry);
+					if (bound == TranspositionTable.EXACT) {
+						return score;
+					} else if (bound == TranspositionTable.LOWER && score > alpha) {
+						alpha = score;
+					} else if (bound == TranspositionTable.UPPER && score < beta) {
+						beta = score;
+					}
+					if (alpha >= beta) {
+						return score;
+					}
+				}
+			}
+		}
+
+		int bestScore = -WIN_SCORE;
+		int bestCol = -1;
+		int base = ply * order.length;
+		int count = orderMoves(pos, color, ply, ttMove, depth);
+		for (int index = base; index < base + count; index++) {
+			int col = moves[index];
+			play(pos, col, color);
+			int score = -negamax(pos, 3 - color, depth - 1, ply + 1, -beta, -alpha);
+			undo(pos, col, color);
+			if (aborted) {
+				return 0;
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				bestCol = col;
+			}
+			if (score > alpha) {
+				alpha = score;
+			}
+			if (alpha >= beta) {
+				recordCutoff(col, color, depth, ply);
+				break;
+			}
+		}
+
+		if (table != null) {
+			int bound = TranspositionTable.EXACT;
+			if (bestScore <= alphaOrig) {
+				bound = TranspositionTable.UPPER;
+			} else if (bestScore >= beta) {
+				bound = TranspositionTable.LOWER;
+			}
+			table.store(key, depth, toTable(bestScore, ply), bound, bestCol);
+		}
+		return bestScore;
+	}
+
+	/**
+	 * Fills this ply's slice of moves with the legal columns, best first. The
+	 * table's move goes first and the others are sorted by the enabled
+	 * heuristics with an insertion sort that keeps the static order for ties.
+	 * Within ORDERING_MIN_DEPTH of the depth limit only the static order is used.
+	 *
+	 * @return the number of moves
+	 */
+	private int orderMoves(Connect4Model pos, int color, int ply, int ttMove, int depth) {
+		// Close to the leaves sorting costs more than the cutoffs it finds.
+		int heuristics = depth >= ORDERING_MIN_DEPTH ? ordering : 0;
+		int[] order = moveOrder;
+		int base = ply * order.length;
+		int count = 0;
+		for (int col : order) {
+			if (pos.getRowPos(col) < 0) {
+				continue;
+			}
+			int score = 0;
+			if (col == ttMove) {
+				score = Integer.MAX_VALUE;
+			} else {
+				if ((heuristics & ORDER_THREATS) != 0) {
+					score += pos.isWinAbove(col, 3 - color) ? LOSING_SCORE
+							: THREAT_SCORE * pos.countThreatsAfter(col, color);
+				}
+				if ((heuristics & ORDER_KILLERS) != 0) {
+					if (killers[2 * ply] == col) {
+						score += KILLER_SCORE;
+					} else if (killers[2 * ply + 1] == col) {
+						score += KILLER_SCORE / 2;
+					}
+				}
+				if ((heuristics & ORDER_HISTORY) != 0) {
+					score += history[(color - 1) * Connect4Model.MAX_COLUMNS + col];
+				}
+			}
+			int slot = base + count++;
+			while (slot > base && moveScores[slot - 1] < score) {
+				moves[slot] = moves[slot - 1];
+				moveScores[slot] = moveScores[slot - 1];
+				slot--;
+			}
+			moves[slot] = col;
+			moveScores[slot] = score;
+		}
+		return count;
+	}
+
+	/**
+	 * Remembers a move that caused a cutoff as a killer for its ply and in the
+	 * history of its color, weighted by the depth left.
+	 */
+	private void recordCutoff(int col, int color, int depth, int ply) {
+		if (killers[2 * ply] != col) {
+			killers[2 * ply + 1] = killers[2 * ply];
+			killers[2 * ply] = col;
+		}
+		int index = (color - 1) * Connect4Model.MAX_COLUMNS + col;
+		history[index] += depth * depth;
+		if (history[index] > HISTORY_LIMIT) {
+			ageHistory();
+		}
+	}
+
+	private void ageHistory() {
+		for (int index = 0; index < history.length; index++) {
+			history[index] >>= 1;
+		}
+	}
+
+	/**
+	 * Forgets the killers of the last search and ages its history, which still
+	 * says something about the next position.
+	 */
+	private void newSearch() {
+		Arrays.fill(killers, -1);
+		ageHistory();
+	}
+
+	/**
+	 * Plays a move on the search's model and tells the evaluator.
+	 */
+	private void play(Connect4Model pos, int col, int color) {
+		if (evaluating) {
+			evaluator.play(col, pos.getHeight(col), color);
+		}
+		pos.play(col, color);
+	}
+
+	/**
+	 * Takes back a move played with play.
+	 */
+	private void undo(Connect4Model pos, int col, int color) {
+		pos.undo(col);
+		if (evaluating) {
+			evaluator.undo(col, pos.getHeight(col), color);
+		}
+	}
+
+	/**
+	 * Builds the evaluator's tables when the board size changes and loads the
+	 * position the search starts from.
+	 */
+	private void loadEvaluator(Connect4Model position) {
+		evaluating = evaluation;
+		if (evaluating == false) {
+			return;
+		}
+		if (evaluator == null || evaluator.fits(position) == false) {
+			evaluator = new Evaluator(position.getXLEN(), position.getYLEN(), position.getWinLength());
+		}
+		evaluator.load(position);
+	}
+
+	/**
+	 * Win scores depend on the ply they were found at, so they are stored relative
+	 * to the position and converted back when read.
+	 */
+	private static int toTable(int score, int ply) {
+		if (score > WIN_SCORE - MAX_PLY) {
+			return score + ply;
+		}
+		if (score < -WIN_SCORE + MAX_PLY) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	private static int fromTable(int score, int ply) {
+		if (score > WIN_SCORE - MAX_PLY) {
+			return score - ply;
+		}
+		if (score < -WIN_SCORE + MAX_PLY) {
+			return score + ply;
+		}
+		return score;
+	}
+
+	/**
+	 * Returns the columns in the static order, from the center outwards or left
+	 * to right, and sizes the move and killer arrays for the board. A search
+	 * never goes deeper than the empty cells, so that bounds the plies.
+	 */
+	private int[] getMoveOrder(Connect4Model model) {
+		int width = model.getYLEN();
+		boolean center = (ordering & ORDER_CENTER) != 0;
+		if (moveOrder == null || moveOrder.length != width || center != moveOrderCentered) {
+			moveOrder = new int[width];
+			moveOrderCentered = center;
+			int middle = (width - 1) / 2;
+			for (int index = 0; index < width; index++) {
+				int offset = (index + 1) / 2;
+				moveOrder[index] = center == false ? index : index % 2 == 1 ? middle + offset : middle - offset;
+			}
+		}
+		int plies = model.getXLEN() * width + 1;
+		if (moves.length < plies * width) {
+			moves = new int[plies * width];
+			moveScores = new int[plies * width];
+			killers = new int[2 * plies];
+			Arrays.fill(killers, -1);
+		}
+		return moveOrder;
+	}
+
+	/**
+	 * Sets the move ordering heuristics used, so their effect on the nodes
+	 * searched can be measured.
+	 *
+	 * @param ordering ORDER_CENTER, ORDER_KILLERS, ORDER_HISTORY and ORDER_THREATS
+	 *                 or'd together, 0 for left to right
+	 */
+	public void setOrdering(int ordering) {
+		this.ordering = ordering;
+	}
+
+	/**
+	 * Returns the move ordering heuristics used.
+	 */
+	public int getOrdering() {
+		return ordering;
+	}
+
+	/**
+	 * Sets whether positions at the depth limit are scored by the Evaluator or
+	 * all score 0.
+	 *
+	 * @param evaluation true to evaluate leaves
+	 */
+	public void setEvaluation(boolean evaluation) {
+		this.evaluation = evaluation;
+	}
+
+	/**
+	 * Returns true if positions at the depth limit are evaluated.
+	 */
+	public boolean getEvaluation() {
+		return evaluation;
+	}
+
+	/**
+	 * Sets the table used to remember searched positions, null to search without
+	 * one.
+	 *
+	 * @param table the transposition table
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Returns the transposition table, null if none is set.
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	/**
+	 * Sets the deepest ply searched.
+	 *
+	 * @param maxDepth the depth limit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Sets the most nodes visited per move.
+	 *
+	 * @param nodeBudget the node limit, 0 for no limit
+	 */
+	public void setNodeBudget(long nodeBudget) {
+		this.nodeBudget = nodeBudget;
+	}
+
+	/**
+	 * Returns the nodes visited by the last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the time taken by the last search in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the throughput of the last search.
+	 */
+	public double getNodesPerSecond() {
+		if (elapsedNanos == 0) {
+			return 0;
+		}
+		return nodes * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the score of the last search for the color that moved, positive if
+	 * it is winning.
+	 */
+	public int getLastScore() {
+		return lastScore;
+	}
+
+	/**
+	 * Returns the deepest ply the last search finished, 0 if it was cut short
+	 * before finishing any.
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * Returns the deepest ply searched.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns true if the last search stopped early because of the node budget or
+	 * a call to stop.
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+}
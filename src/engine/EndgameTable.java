@@ -0,0 +1,332 @@
+package engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import model.Connect4Model;
+
+/**
+ * This Class looks up solved endgame positions in a table file written by
+ * EndgameTableGenerator. The file is memory mapped, so the table lives off the
+ * heap, opening it reads nothing and lookups read the mapped pages directly.
+ * Once written it may be probed from several threads at once.
+ *
+ * The file starts with a header of HEADER_BYTES: the ints MAGIC, VERSION, rows,
+ * columns, win length and the most empty cells solved, then the long capacity
+ * and the long number of positions. It is followed by capacity long slots, an
+ * open addressing hash table probed linearly from a hash of the key. A slot
+ * holds the position key shifted left 8 bits with the value in the low byte,
+ * and 0 when empty; only boards whose exact position key fits in 56 bits can be
+ * stored. The color to move is not in the key since color 1 always moves first.
+ *
+ * A value holds the result for the color to move in its low 2 bits, WIN, LOSS
+ * or DRAW, and above them the number of plies left in the game with best play:
+ * winning as soon as possible and losing as late as possible.
+ *
+ * @author Todd Noecker
+ */
+public class EndgameTable implements Closeable {
+
+	public static final int MAGIC = 0x43344554;
+	public static final int VERSION = 1;
+	public static final int WIN = 1;
+	public static final int LOSS = 2;
+	public static final int DRAW = 3;
+	public static final int MAX_KEY_BITS = 56;
+	static final int HEADER_BYTES = 40;
+	static final int SEGMENT_BITS = 27;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] segments;
+	private final int rows;
+	private final int columns;
+	private final int winLength;
+	private final int maxEmpty;
+	private final long mask;
+	private long count;
+
+	private EndgameTable(FileChannel channel, boolean writable) throws IOException {
+		this.channel = channel;
+		long size = channel.size();
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+		for (int segment = 0; segment < segments.length; segment++) {
+			long start = (long) segment << SEGMENT_BITS;
+			segments[segment] = channel.map(mode, start, Math.min(1L << SEGMENT_BITS, size - start));
+			segments[segment].order(ByteOrder.BIG_ENDIAN);
+		}
+		if (size < HEADER_BYTES || segments[0].getInt(0) != MAGIC) {
+			throw new IOException("Not an endgame table");
+		}
+		if (segments[0].getInt(4) != VERSION) {
+			throw new IOException("Unsupported endgame table version " + segments[0].getInt(4));
+		}
+		rows = segments[0].getInt(8);
+		columns = segments[0].getInt(12);
+		winLength = segments[0].getInt(16);
+		maxEmpty = segments[0].getInt(20);
+		long capacity = segments[0].getLong(24);
+		count = segments[0].getLong(32);
+		if (Long.bitCount(capacity) != 1 || size < HEADER_BYTES + capacity * 8) {
+			throw new IOException("Endgame table is damaged");
+		}
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Creates an empty table file with room for a number of positions, replacing
+	 * any file there. The slots are at most half full.
+	 *
+	 * @param path      table file
+	 * @param rows      rows of the board
+	 * @param columns   columns of the board
+	 * @param winLength pieces in a line needed to win
+	 * @param maxEmpty  most empty cells of the positions solved
+	 * @param positions number of positions to be put
+	 * @return the table, open for put
+	 * @throws IOException if the file can not be written
+	 */
+	static EndgameTable create(Path path, int rows, int columns, int winLength, int maxEmpty, long positions)
+			throws IOException {
+		if ((rows + 1) * columns > MAX_KEY_BITS) {
+			throw new IllegalArgumentException("A " + rows + "x" + columns + " board does not fit an endgame table");
+		}
+		long capacity = Long.highestOneBit(Math.max(1024, positions * 2 - 1)) << 1;
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns).putInt(winLength).putInt(maxEmpty)
+					.putLong(capacity).putLong(0);
+			header.flip();
+			channel.write(header, 0);
+			// Growing the file fills it with zeros, which are empty slots.
+			channel.write(ByteBuffer.allocate(1), HEADER_BYTES + capacity * 8 - 1);
+			return new EndgameTable(channel, true);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps a table file for probing.
+	 *
+	 * @param path table file
+	 * @return the opened table
+	 * @throws IOException if the file can not be read or is not a table
+	 */
+	public static EndgameTable open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new EndgameTable(channel, false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stores the value of a position. Only one thread may put at a time.
+	 *
+	 * @param key   exact position key
+	 * @param value packed result and distance, see value
+	 */
+	void put(long key, int value) {
+		long slot = hash(key) & mask;
+		while (true) {
+			long entry = getSlot(slot);
+			if (entry == 0) {
+				count++;
+				break;
+			}
+			if (entry >>> 8 == key) {
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		putSlot(slot, key << 8 | value);
+	}
+
+	/**
+	 * Returns the stored value of a position key, 0 if it is not in the table.
+	 *
+	 * @param key exact position key
+	 */
+	public int probe(long key) {
+		long slot = hash(key) & mask;
+		while (true) {
+			long entry = getSlot(slot);
+			if (entry == 0) {
+				return 0;
+			}
+			if (entry >>> 8 == key) {
+				return (int) (entry & 0xFF);
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the stored value of a position, 0 if it is not in the table, is on
+	 * another board or has more empty cells than were solved.
+	 *
+	 * @param model the position, color 1 having moved first
+	 */
+	public int probe(Connect4Model model) {
+		if (fits(model) == false || rows * columns - model.getMoveCount() > maxEmpty) {
+			return 0;
+		}
+		return probe(model.getPositionKey());
+	}
+
+	/**
+	 * Returns the best column for a position from the table: a winning move, or
+	 * the move whose position is best for the color to move.
+	 *
+	 * @param model current game
+	 * @param color color to move, which must be the one whose turn it is with
+	 *              color 1 moving first
+	 * @return the column, -1 if the position is not in the table
+	 */
+	public int bestMove(Connect4Model model, int color) {
+		if (probe(model) == 0 || color != (model.getMoveCount() % 2 == 0 ? 1 : 2)) {
+			return -1;
+		}
+		int bestCol = -1;
+		int bestRank = Integer.MIN_VALUE;
+		Connect4Model position = model.copy();
+		for (int col = 0; col < columns; col++) {
+			if (position.getRowPos(col) < 0) {
+				continue;
+			}
+			if (position.isWinningMove(col, color)) {
+				return col;
+			}
+			position.play(col, color);
+			int child = probe(position.getPositionKey());
+			position.undo(col);
+			if (child == 0) {
+				return -1;
+			}
+			// The child's result is the opponent's, so its loss is our win.
+			int rank = rank(child);
+			if (rank > bestRank) {
+				bestRank = rank;
+				bestCol = col;
+			}
+		}
+		return bestCol;
+	}
+
+	/**
+	 * Orders children by how good they are for the color moving into them: the
+	 * opponent losing soonest first, then draws, then the opponent winning
+	 * latest.
+	 */
+	private static int rank(int childValue) {
+		int plies = distance(childValue);
+		switch (result(childValue)) {
+		case LOSS:
+			return 1000 - plies;
+		case DRAW:
+			return 0;
+		default:
+			return -1000 + plies;
+		}
+	}
+
+	/**
+	 * Packs a result and the plies left into a value.
+	 */
+	static int value(int result, int plies) {
+		return plies << 2 | result;
+	}
+
+	/**
+	 * Returns the result held in a value: WIN, LOSS or DRAW for the color to
+	 * move.
+	 */
+	public static int result(int value) {
+		return value & 0x3;
+	}
+
+	/**
+	 * Returns the plies left in the game with best play held in a value.
+	 */
+	public static int distance(int value) {
+		return value >>> 2;
+	}
+
+	/**
+	 * Returns true if the table was built for the model's board.
+	 */
+	public boolean fits(Connect4Model model) {
+		return model.getXLEN() == rows && model.getYLEN() == columns && model.getWinLength() == winLength;
+	}
+
+	/**
+	 * Returns the number of positions in the table.
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Returns the most empty cells of the positions solved.
+	 */
+	public int getMaxEmpty() {
+		return maxEmpty;
+	}
+
+	/**
+	 * Returns the size of the table file in bytes.
+	 */
+	public long getFileBytes() {
+		return HEADER_BYTES + (mask + 1) * 8;
+	}
+
+	/**
+	 * Writes the number of positions to the header and the mapped pages to the
+	 * file. Only tables open for put are written.
+	 */
+	void flush() {
+		if (segments[0].isReadOnly() == false) {
+			segments[0].putLong(32, count);
+			for (MappedByteBuffer segment : segments) {
+				segment.force();
+			}
+		}
+	}
+
+	/**
+	 * Flushes a table being written and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private static long hash(long key) {
+		long mixed = key * 0x9E3779B97F4A7C15L;
+		return mixed ^ mixed >>> 29;
+	}
+
+	private long getSlot(long slot) {
+		long position = HEADER_BYTES + slot * 8;
+		return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & SEGMENT_MASK));
+	}
+
+	private void putSlot(long slot, long entry) {
+		long position = HEADER_BYTES + slot * 8;
+		segments[(int) (position >>> SEGMENT_BITS)].putLong((int) (position & SEGMENT_MASK), entry);
+	}
+}
@@ -0,0 +1,493 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.Connect4Model;
+import model.GameRecordStore;
+
+/**
+ * This Class builds an EndgameTable offline by retrograde analysis. Starting
+ * from seed positions with at most the given number of empty cells, it first
+ * enumerates every position reachable from them, one layer per number of empty
+ * cells, and then solves the layers backwards from the full boards up. Every
+ * position with e empty cells is solved from the table entries of its children,
+ * which all have e - 1, so each is looked at once and the results are exact.
+ * Both passes split each layer across the threads. The layers are kept as
+ * position keys in open addressing sets on the heap; only the results go to
+ * the memory mapped table.
+ *
+ * Seeds come from the games of a GameRecordStore, from self play, or one at a
+ * time from addSeed. Color 1 is assumed to move first and the colors to
+ * alternate, so the color to move follows from the number of pieces.
+ *
+ * @author Todd Noecker
+ */
+public class EndgameTableGenerator {
+
+	public static final int DEFAULT_MAX_EMPTY = 12;
+
+	private final int rows;
+	private final int columns;
+	private final int winLength;
+	private final int maxEmpty;
+	private final int threads;
+	// The positions with each number of empty cells.
+	private final LongSet[] layers;
+	private long enumerateNanos;
+	private long solveNanos;
+
+	/**
+	 * Creates a generator for the standard board.
+	 *
+	 * @param maxEmpty most empty cells of the positions solved
+	 * @param threads  number of threads enumerating and solving
+	 */
+	public EndgameTableGenerator(int maxEmpty, int threads) {
+		this(Connect4Model.DEFAULT_ROWS, Connect4Model.DEFAULT_COLUMNS, Connect4Model.DEFAULT_WIN_LENGTH, maxEmpty,
+				threads);
+	}
+
+	/**
+	 * Creates a generator for a board whose exact position key fits an
+	 * EndgameTable.
+	 *
+	 * @param rows      rows of the board
+	 * @param columns   columns of the board
+	 * @param winLength pieces in a line needed to win
+	 * @param maxEmpty  most empty cells of the positions solved
+	 * @param threads   number of threads enumerating and solving
+	 */
+	public EndgameTableGenerator(int rows, int columns, int winLength, int maxEmpty, int threads) {
+		if ((rows + 1) * columns > EndgameTable.MAX_KEY_BITS) {
+			throw new IllegalArgumentException("A " + rows + "x" + columns + " board does not fit an endgame table");
+		}
+		this.rows = rows;
+		this.columns = columns;
+		this.winLength = winLength;
+		this.maxEmpty = Math.min(maxEmpty, rows * columns);
+		this.threads = Math.max(1, threads);
+		layers = new LongSet[this.maxEmpty + 1];
+		for (int empty = 0; empty < layers.length; empty++) {
+			layers[empty] = new LongSet();
+		}
+	}
+
+	/**
+	 * Adds a position to be solved along with everything reachable from it.
+	 * Positions on another board, with too many empty cells or already won are
+	 * left out.
+	 *
+	 * @param position the position, color 1 having moved first
+	 * @return true if the position was added
+	 */
+	public boolean addSeed(Connect4Model position) {
+		int empty = rows * columns - position.getMoveCount();
+		if (position.getXLEN() != rows || position.getYLEN() != columns || position.getWinLength() != winLength
+				|| empty > maxEmpty || position.checkForWin(1) == 1 || position.checkForWin(2) == 2) {
+			return false;
+		}
+		return layers[empty].add(position.getPositionKey());
+	}
+
+	/**
+	 * Adds the position of each archived game once it reaches the most empty
+	 * cells solved. Games finished earlier add nothing.
+	 *
+	 * @param store the archive
+	 * @return the number of positions added
+	 */
+	public long addSeeds(GameRecordStore store) {
+		long[] added = new long[1];
+		store.forEachGame((game, played, count, result) -> {
+			Connect4Model model = new Connect4Model(rows, columns, winLength);
+			int color = 1;
+			for (int move = 0; move < count && rows * columns - model.getMoveCount() > maxEmpty; move++) {
+				if (played[move] >= columns || model.getRowPos(played[move]) < 0) {
+					return;
+				}
+				model.move(played[move], color);
+				color = 3 - color;
+			}
+			if (addSeed(model)) {
+				added[0]++;
+			}
+		});
+		return added[0];
+	}
+
+	/**
+	 * Plays games against itself until they reach the most empty cells solved
+	 * and adds those positions. Each move is random one time in four and
+	 * otherwise a shallow search, so the games look like play but vary.
+	 *
+	 * @param games number of games to play
+	 * @param seed  seed of the random moves
+	 * @return the number of positions added
+	 */
+	public int addSelfPlaySeeds(int games, long seed) {
+		Random random = new Random(seed);
+		Connect4Engine engine = new Connect4Engine(2, 0);
+		int added = 0;
+		for (int game = 0; game < games; game++) {
+			Connect4Model model = new Connect4Model(rows, columns, winLength);
+			int color = 1;
+			boolean won = false;
+			while (won == false && rows * columns - model.getMoveCount() > maxEmpty) {
+				int col = random.nextInt(4) == 0 ? random.nextInt(columns) : engine.bestMove(model, color);
+				while (model.getRowPos(col) < 0) {
+					col = col + 1 == columns ? 0 : col + 1;
+				}
+				won = model.isWinningMove(col, color);
+				model.move(col, color);
+				color = 3 - color;
+			}
+			if (won == false && addSeed(model)) {
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Enumerates and solves the positions and writes the table.
+	 *
+	 * @param path file to write, replaced if it exists
+	 * @return the number of positions written
+	 * @throws IOException if the file can not be written
+	 */
+	public long generate(Path path) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			long start = System.nanoTime();
+			for (int empty = maxEmpty; empty > 0; empty--) {
+				expand(pool, empty);
+			}
+			enumerateNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			try (EndgameTable table = EndgameTable.create(path, rows, columns, winLength, maxEmpty, getPositions())) {
+				for (int empty = 0; empty <= maxEmpty; empty++) {
+					solve(pool, table, empty);
+				}
+				solveNanos = System.nanoTime() - start;
+				return table.size();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Adds the children of a layer to the layer below. Winning moves end the game
+	 * and have no position.
+	 */
+	private void expand(ExecutorService pool, int empty) throws IOException {
+		long[] keys = layers[empty].toArray();
+		List<LongSet> found = run(pool, keys.length, (from, to) -> {
+			LongSet children = new LongSet();
+			Connect4Model model = new Connect4Model(rows, columns, winLength);
+			for (int index = from; index < to; index++) {
+				int color = load(model, keys[index]);
+				for (int col = 0; col < columns; col++) {
+					if (model.getRowPos(col) < 0 || model.isWinningMove(col, color)) {
+						continue;
+					}
+					model.play(col, color);
+					children.add(model.getPositionKey());
+					model.undo(col);
+				}
+				clear(model);
+			}
+			return children;
+		});
+		for (LongSet children : found) {
+			for (long key : children.toArray()) {
+				layers[empty - 1].add(key);
+			}
+		}
+	}
+
+	/**
+	 * Solves a layer from the table entries of the layer below and puts the
+	 * results in the table.
+	 */
+	private void solve(ExecutorService pool, EndgameTable table, int empty) throws IOException {
+		long[] keys = layers[empty].toArray();
+		byte[] values = new byte[keys.length];
+		run(pool, keys.length, (from, to) -> {
+			Connect4Model model = new Connect4Model(rows, columns, winLength);
+			for (int index = from; index < to; index++) {
+				int color = load(model, keys[index]);
+				values[index] = (byte) solve(table, model, color);
+				clear(model);
+			}
+			return null;
+		});
+		for (int index = 0; index < keys.length; index++) {
+			table.put(keys[index], values[index] & 0xFF);
+		}
+	}
+
+	/**
+	 * Returns the value of one position whose children are in the table.
+	 */
+	private int solve(EndgameTable table, Connect4Model model, int color) {
+		int bestResult = 0;
+		int bestPlies = 0;
+		for (int col = 0; col < columns; col++) {
+			if (model.getRowPos(col) < 0) {
+				continue;
+			}
+			if (model.isWinningMove(col, color)) {
+				return EndgameTable.value(EndgameTable.WIN, 1);
+			}
+			model.play(col, color);
+			int child = table.probe(model.getPositionKey());
+			model.undo(col);
+			if (child == 0) {
+				throw new IllegalStateException("A child position was not solved");
+			}
+			// The child is scored for the opponent.
+			int result = EndgameTable.result(child);
+			result = result == EndgameTable.WIN ? EndgameTable.LOSS
+					: result == EndgameTable.LOSS ? EndgameTable.WIN : EndgameTable.DRAW;
+			int plies = EndgameTable.distance(child) + 1;
+			if (bestResult == 0 || better(result, plies, bestResult, bestPlies)) {
+				bestResult = result;
+				bestPlies = plies;
+			}
+		}
+		// A full board is a draw with nothing left to play.
+		return bestResult == 0 ? EndgameTable.value(EndgameTable.DRAW, 0) : EndgameTable.value(bestResult, bestPlies);
+	}
+
+	/**
+	 * Returns true if the first result is better for the color to move: wins
+	 * beat draws beat losses, quicker wins and slower losses are preferred.
+	 */
+	private static boolean better(int result, int plies, int bestResult, int bestPlies) {
+		if (result != bestResult) {
+			return order(result) > order(bestResult);
+		}
+		return result == EndgameTable.WIN ? plies < bestPlies : result == EndgameTable.LOSS && plies > bestPlies;
+	}
+
+	private static int order(int result) {
+		return result == EndgameTable.WIN ? 2 : result == EndgameTable.DRAW ? 1 : 0;
+	}
+
+	/**
+	 * Plays the pieces of an exact position key onto an empty model, bottom up
+	 * in each column, and returns the color to move.
+	 */
+	private int load(Connect4Model model, long key) {
+		int stride = rows + 1;
+		for (int col = 0; col < columns; col++) {
+			long column = key >>> col * stride & (1L << stride) - 1;
+			// The highest bit sits just above the column's top piece and the color
+			// 1 pieces are set below it.
+			int height = 63 - Long.numberOfLeadingZeros(column);
+			for (int cell = 0; cell < height; cell++) {
+				model.play(col, (column >>> cell & 1) != 0 ? 1 : 2);
+			}
+		}
+		return model.getMoveCount() % 2 == 0 ? 1 : 2;
+	}
+
+	private void clear(Connect4Model model) {
+		for (int col = 0; col < columns; col++) {
+			for (int height = model.getHeight(col); height > 0; height--) {
+				model.undo(col);
+			}
+		}
+	}
+
+	/**
+	 * Work on a range of a layer.
+	 */
+	private interface Chunk<T> {
+		T run(int from, int to);
+	}
+
+	/**
+	 * Splits a layer into one range per thread and returns each range's result.
+	 */
+	private <T> List<T> run(ExecutorService pool, int length, Chunk<T> chunk) throws IOException {
+		List<Future<T>> running = new ArrayList<>();
+		int step = (length + threads - 1) / threads;
+		for (int from = 0; from < length; from += step) {
+			int start = from;
+			int end = Math.min(length, from + step);
+			running.add(pool.submit(() -> chunk.run(start, end)));
+		}
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> future : running) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Endgame generation was interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Endgame generation failed: " + e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the number of positions enumerated so far.
+	 */
+	public long getPositions() {
+		long positions = 0;
+		for (LongSet layer : layers) {
+			positions += layer.size;
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns the number of positions with a number of empty cells.
+	 *
+	 * @param empty empty cells, up to the most solved
+	 */
+	public long getPositions(int empty) {
+		return layers[empty].size;
+	}
+
+	/**
+	 * Returns the time taken to enumerate the positions in milliseconds.
+	 */
+	public long getEnumerateMillis() {
+		return enumerateNanos / 1_000_000;
+	}
+
+	/**
+	 * Returns the time taken to solve the positions and write the table in
+	 * milliseconds.
+	 */
+	public long getSolveMillis() {
+		return solveNanos / 1_000_000;
+	}
+
+	/**
+	 * A set of position keys, which are never 0, in an open addressing table
+	 * kept at most half full.
+	 */
+	private static final class LongSet {
+		private long[] slots = new long[64];
+		private int size;
+
+		private boolean add(long key) {
+			if (size * 2 >= slots.length) {
+				long[] old = slots;
+				slots = new long[old.length * 2];
+				size = 0;
+				for (long kept : old) {
+					if (kept != 0) {
+						add(kept);
+					}
+				}
+			}
+			int mask = slots.length - 1;
+			long mixed = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (mixed ^ mixed >>> 32) & mask;
+			while (slots[slot] != 0) {
+				if (slots[slot] == key) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = key;
+			size++;
+			return true;
+		}
+
+		private long[] toArray() {
+			long[] keys = new long[size];
+			int count = 0;
+			for (long key : slots) {
+				if (key != 0) {
+					keys[count++] = key;
+				}
+			}
+			return keys;
+		}
+	}
+
+	/**
+	 * Generates a table from the command line and reports the generation time,
+	 * the size of the file and the probe latency.
+	 *
+	 * @param args file, most empty cells, and optionally self play games or a
+	 *             game record file to seed from, and threads
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: EndgameTableGenerator <file> <maxEmpty> [games|recordFile] [threads]");
+			return;
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		EndgameTableGenerator generator = new EndgameTableGenerator(Integer.parseInt(args[1]), threads);
+		String seeds = args.length > 2 ? args[2] : "1000";
+		long added;
+		if (seeds.chars().allMatch(Character::isDigit)) {
+			added = generator.addSelfPlaySeeds(Integer.parseInt(seeds), 1);
+		} else {
+			try (GameRecordStore store = GameRecordStore.open(Paths.get(seeds))) {
+				added = generator.addSeeds(store);
+			}
+		}
+		Path path = Paths.get(args[0]);
+		long count = generator.generate(path);
+		System.out.printf("%d seeds, %d positions on %d threads: enumerated in %d ms, solved in %d ms%n", added,
+				count, threads, generator.getEnumerateMillis(), generator.getSolveMillis());
+
+		try (EndgameTable table = EndgameTable.open(path)) {
+			System.out.printf("%s: %d bytes on disk, %.1f bytes a position%n", path, Files.size(path),
+					(double) Files.size(path) / Math.max(1, count));
+			// Probe every position in random order, then ask for moves from the seeds.
+			long[] keys = new long[0];
+			for (LongSet layer : generator.layers) {
+				long[] layerKeys = layer.toArray();
+				keys = Arrays.copyOf(keys, keys.length + layerKeys.length);
+				System.arraycopy(layerKeys, 0, keys, keys.length - layerKeys.length, layerKeys.length);
+			}
+			// The sets give keys in slot order, so shuffle them with a fixed seed.
+			Random random = new Random(1);
+			for (int index = keys.length - 1; index > 0; index--) {
+				int other = random.nextInt(index + 1);
+				long key = keys[index];
+				keys[index] = keys[other];
+				keys[other] = key;
+			}
+			long found = 0;
+			long start = System.nanoTime();
+			for (long key : keys) {
+				found += table.probe(key) != 0 ? 1 : 0;
+			}
+			double probeNanos = (double) (System.nanoTime() - start) / Math.max(1, keys.length);
+			long[] seedKeys = generator.layers[generator.maxEmpty].toArray();
+			Connect4Model model = new Connect4Model();
+			start = System.nanoTime();
+			for (long key : seedKeys) {
+				int color = generator.load(model, key);
+				table.bestMove(model, color);
+				generator.clear(model);
+			}
+			double moveNanos = (double) (System.nanoTime() - start) / Math.max(1, seedKeys.length);
+			System.out.printf("probe %.0f ns (%d of %d found), best move %.0f ns%n", probeNanos, found, keys.length,
+					moveNanos);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package engine;
+
+import java.util.Arrays;
+
+import model.Connect4Model;
+
+/**
+ * This Class scores positions at the depth limit of the search. Every line of
+ * win length cells on the board is a window, and the windows through each cell
+ * are worked out once per board size. The evaluator keeps how many pieces of
+ * each color every window holds and a running score, both updated by play and
+ * undo, so a move touches only the windows through its cell, at most four times
+ * the win length, and reading the score is free.
+ *
+ * A window holding pieces of both colors can never be won and scores nothing.
+ * Otherwise it scores the square of its pieces for their owner, and a window
+ * one piece short of a win is an open three, a threat, worth THREAT_SCORE. The
+ * first player wants its threats on odd rows counted from the bottom and the
+ * second player on even rows, since that is where zugzwang at the end of the
+ * game lets them be cashed in, so those threats earn PARITY_SCORE on top. Each
+ * piece also scores the number of windows through its cell, which favours the
+ * center. Cells are numbered column * rows + height, height 0 at the bottom.
+ *
+ * @author Todd Noecker
+ */
+public class Evaluator {
+
+	public static final int THREAT_SCORE = 24;
+	public static final int PARITY_SCORE = 12;
+
+	private final int rows;
+	private final int columns;
+	private final int winLength;
+	// The cells of window w are windowCells[w * winLength ...], in line order.
+	private final int[] windowCells;
+	// The windows through cell c and the cell's place in each are at
+	// cellWindows[cellStart[c] ... cellStart[c + 1]] and cellOffsets likewise.
+	private final int[] cellStart;
+	private final int[] cellWindows;
+	private final int[] cellOffsets;
+	private final int[] count1;
+	private final int[] count2;
+	// Sum of the places of the pieces in each window, which finds the empty cell
+	// of a threat without looking at the board.
+	private final int[] offsetSum;
+	private final int offsetTotal;
+	private int score;
+
+	/**
+	 * Builds the window tables for a board size, with an empty board.
+	 *
+	 * @param rows      number of rows
+	 * @param columns   number of columns
+	 * @param winLength pieces in a line needed to win
+	 */
+	public Evaluator(int rows, int columns, int winLength) {
+		this.rows = rows;
+		this.columns = columns;
+		this.winLength = winLength;
+		int cells = rows * columns;
+		// Up, right, up and right, down and right.
+		int[] dColumn = { 0, 1, 1, 1 };
+		int[] dHeight = { 1, 0, 1, -1 };
+		int windows = 0;
+		int[] perCell = new int[cells + 1];
+		int[] cellsFound = new int[4 * cells * winLength];
+		for (int direction = 0; direction < 4; direction++) {
+			for (int column = 0; column < columns; column++) {
+				for (int height = 0; height < rows; height++) {
+					int lastColumn = column + dColumn[direction] * (winLength - 1);
+					int lastHeight = height + dHeight[direction] * (winLength - 1);
+					if (lastColumn >= columns || lastHeight < 0 || lastHeight >= rows) {
+						continue;
+					}
+					for (int place = 0; place < winLength; place++) {
+						int cell = (column + dColumn[direction] * place) * rows + height + dHeight[direction] * place;
+						cellsFound[windows * winLength + place] = cell;
+						perCell[cell + 1]++;
+					}
+					windows++;
+				}
+			}
+		}
+		windowCells = Arrays.copyOf(cellsFound, windows * winLength);
+		cellStart = perCell;
+		for (int cell = 0; cell < cells; cell++) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+		cellWindows = new int[cellStart[cells]];
+		cellOffsets = new int[cellStart[cells]];
+		int[] filled = new int[cells];
+		for (int window = 0; window < windows; window++) {
+			for (int place = 0; place < winLength; place++) {
+				int cell = windowCells[window * winLength + place];
+				int slot = cellStart[cell] + filled[cell]++;
+				cellWindows[slot] = window;
+				cellOffsets[slot] = place;
+			}
+		}
+		count1 = new int[windows];
+		count2 = new int[windows];
+		offsetSum = new int[windows];
+		offsetTotal = winLength * (winLength - 1) / 2;
+	}
+
+	/**
+	 * Returns true if the tables were built for the model's board size.
+	 */
+	public boolean fits(Connect4Model model) {
+		return model.getXLEN() == rows && model.getYLEN() == columns && model.getWinLength() == winLength;
+	}
+
+	/**
+	 * Clears the counts and adds every piece on the model, which must fit.
+	 *
+	 * @param model the position to score
+	 */
+	public void load(Connect4Model model) {
+		Arrays.fill(count1, 0);
+		Arrays.fill(count2, 0);
+		Arrays.fill(offsetSum, 0);
+		score = 0;
+		for (int column = 0; column < columns; column++) {
+			int top = model.getHeight(column);
+			for (int height = 0; height < top; height++) {
+				play(column, height, model.getSlot(rows - 1 - height, column));
+			}
+		}
+	}
+
+	/**
+	 * Adds a piece.
+	 *
+	 * @param column column played
+	 * @param height height the piece lands at, the column's height before it
+	 * @param color  color of the piece
+	 */
+	public void play(int column, int height, int color) {
+		update(column * rows + height, color, 1);
+	}
+
+	/**
+	 * Takes back a piece added by play.
+	 *
+	 * @param column column played
+	 * @param height height of the piece, the column's height after it is removed
+	 * @param color  color of the piece
+	 */
+	public void undo(int column, int height, int color) {
+		update(column * rows + height, color, -1);
+	}
+
+	private void update(int cell, int color, int step) {
+		int[] counts = color == 1 ? count1 : count2;
+		int total = score;
+		for (int slot = cellStart[cell]; slot < cellStart[cell + 1]; slot++) {
+			int window = cellWindows[slot];
+			total -= value(window);
+			counts[window] += step;
+			offsetSum[window] += step * cellOffsets[slot];
+			total += value(window);
+		}
+		int center = cellStart[cell + 1] - cellStart[cell];
+		score = total + (color == 1 ? center : -center) * step;
+	}
+
+	/**
+	 * Scores one window for color 1.
+	 */
+	private int value(int window) {
+		int mine = count1[window];
+		int theirs = count2[window];
+		if (mine != 0 && theirs != 0) {
+			return 0;
+		}
+		int pieces = mine + theirs;
+		int sign = mine != 0 ? 1 : -1;
+		if (pieces == winLength - 1 && pieces > 0) {
+			int empty = windowCells[window * winLength + offsetTotal - offsetSum[window]];
+			boolean odd = empty % rows % 2 == 0;
+			return sign * (odd == (mine != 0) ? THREAT_SCORE + PARITY_SCORE : THREAT_SCORE);
+		}
+		// A full window is a win, which the search scores before asking.
+		if (pieces >= winLength) {
+			return 0;
+		}
+		return sign * pieces * pieces;
+	}
+
+	/**
+	 * Returns the score for a color, positive if it stands better.
+	 *
+	 * @param color color to score for
+	 */
+	public int evaluate(int color) {
+		return color == 1 ? score : -score;
+	}
+
+	/**
+	 * Returns the number of windows on the board.
+	 */
+	public int getWindowCount() {
+		return count1.length;
+	}
+
+	/**
+	 * Returns the number of windows through a cell.
+	 *
+	 * @param column column of the cell
+	 * @param height height of the cell, 0 at the bottom
+	 */
+	public int getWindowCount(int column, int height) {
+		int cell = column * rows + height;
+		return cellStart[cell + 1] - cellStart[cell];
+	}
+}
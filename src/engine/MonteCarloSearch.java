@@ -0,0 +1,487 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.Connect4Model;
+
+/**
+ * This Class is a computer player using Monte Carlo Tree Search, for boards too
+ * big for the alpha-beta Connect4Engine to see far. Each playout walks down the
+ * tree choosing children by UCT, adds the children of the leaf it reaches and
+ * plays random moves from there to the end of the game, and the result is
+ * counted in every node on the way. The move played is the root child visited
+ * most. A stop is kept until resetStop, as with Connect4Engine, so one made
+ * before a search starts still stops it.
+ *
+ * The search is root parallel: each thread grows its own tree from the same
+ * position and the visits of the root children are added up at the end, so the
+ * threads share nothing while they run. The trees live in arrays sized from a
+ * memory cap, NODE_BYTES a node, allocated by a tree's first search and reused
+ * for every move after it, so a player that never searches costs nothing. A tree
+ * that fills its arrays stops growing and keeps running playouts from its
+ * leaves. Playouts play and take back moves on the thread's own copy of the
+ * model and draw columns from the thread's own xorshift generator, so they
+ * allocate nothing.
+ *
+ * @author Todd Noecker
+ */
+public class MonteCarloSearch {
+
+	public static final long DEFAULT_MEMORY = 64L * 1024 * 1024;
+	public static final long DEFAULT_PLAYOUT_BUDGET = 200_000;
+	// Visits, score and first child ints plus column, child count and flag bytes.
+	public static final int NODE_BYTES = 15;
+	private static final double EXPLORATION = Math.sqrt(2);
+	private static final long STOP_CHECK_MASK = 255;
+	private static final byte WINNING = 1;
+
+	private final Tree[] trees;
+	private final ExecutorService helpers;
+	private long playoutBudget = DEFAULT_PLAYOUT_BUDGET;
+	private volatile boolean stopRequested;
+	private long deadline;
+	private long playouts;
+	private long elapsedNanos;
+	private int treeSize;
+
+	/**
+	 * Creates a search using the given number of threads, including the caller,
+	 * and at most the given memory for the trees.
+	 *
+	 * @param threads     number of threads searching
+	 * @param memoryBytes memory shared out between the threads' trees
+	 */
+	public MonteCarloSearch(int threads, long memoryBytes) {
+		trees = new Tree[Math.max(1, threads)];
+		long perTree = Math.max(2, memoryBytes / NODE_BYTES / trees.length);
+		for (int index = 0; index < trees.length; index++) {
+			trees[index] = new Tree((int) Math.min(perTree, Integer.MAX_VALUE - 8), index);
+		}
+		if (trees.length > 1) {
+			helpers = Executors.newFixedThreadPool(trees.length - 1, (runnable) -> {
+				Thread thread = new Thread(runnable, "connect4-playouts");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			helpers = null;
+		}
+	}
+
+	/**
+	 * Runs the playout budget, shared between the threads, and returns the column
+	 * to play. The model is not changed.
+	 *
+	 * @param model current game
+	 * @param color color to move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMove(Connect4Model model, int color) {
+		return run(model, color, 0);
+	}
+
+	/**
+	 * Runs playouts until the time budget is spent and returns the column to
+	 * play. The playout budget is not used.
+	 *
+	 * @param model        current game
+	 * @param color        color to move
+	 * @param budgetMillis time allowed for the move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMoveTimed(Connect4Model model, int color, long budgetMillis) {
+		return run(model, color, System.nanoTime() + budgetMillis * 1_000_000);
+	}
+
+	/**
+	 * Grows the trees on the helpers and the calling thread and adds up the
+	 * visits of the root children. A deadline of 0 runs the playout budget.
+	 */
+	private int run(Connect4Model model, int color, long deadline) {
+		long start = System.nanoTime();
+		this.deadline = deadline;
+		long budget = deadline == 0 ? Math.max(1, playoutBudget / trees.length) : Long.MAX_VALUE;
+
+		List<Future<?>> running = new ArrayList<>();
+		for (int index = 1; index < trees.length; index++) {
+			Tree tree = trees[index];
+			running.add(helpers.submit(() -> tree.search(model, color, budget)));
+		}
+		trees[0].search(model, color, budget);
+		for (Future<?> helper : running) {
+			try {
+				helper.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				System.err.println("A playout thread failed: " + e.getCause());
+			}
+		}
+
+		long[] visits = new long[model.getYLEN()];
+		playouts = 0;
+		treeSize = 0;
+		for (Tree tree : trees) {
+			tree.addRootVisits(visits);
+			playouts += tree.playouts;
+			treeSize += tree.size;
+		}
+		int bestCol = -1;
+		for (int col = 0; col < visits.length; col++) {
+			if (model.getRowPos(col) >= 0 && (bestCol == -1 || visits[col] > visits[bestCol])) {
+				bestCol = col;
+			}
+		}
+		this.deadline = 0;
+		elapsedNanos = System.nanoTime() - start;
+		return bestCol;
+	}
+
+	/**
+	 * Returns true once stop was called or the deadline has passed.
+	 */
+	private boolean shouldStop() {
+		return stopRequested || (deadline != 0 && System.nanoTime() - deadline > 0);
+	}
+
+	/**
+	 * One thread's tree. Node 0 is the root. The children of a node are stored
+	 * next to each other from its first child, and a node's score counts two for
+	 * a win and one for a draw of the color that moved into it. A child flagged
+	 * WINNING ends the game, so reaching it needs no playout.
+	 */
+	private class Tree {
+		private final int capacity;
+		private int[] visits = new int[0];
+		private int[] scores;
+		private int[] firstChild;
+		private byte[] columns;
+		private byte[] childCounts;
+		private byte[] flags;
+		private int size;
+		private long playouts;
+		private long seed;
+		// Reused for every playout: the nodes walked and the random moves played.
+		private int[] path = new int[0];
+		private int[] moves = new int[0];
+
+		private Tree(int capacity, int index) {
+			this.capacity = capacity;
+			seed = System.nanoTime() ^ (index + 1) * 0x9E3779B97F4A7C15L;
+		}
+
+		/**
+		 * Runs playouts from a new tree until the budget or the deadline.
+		 */
+		private void search(Connect4Model model, int color, long budget) {
+			if (visits.length != capacity) {
+				visits = new int[capacity];
+				scores = new int[capacity];
+				firstChild = new int[capacity];
+				columns = new byte[capacity];
+				childCounts = new byte[capacity];
+				flags = new byte[capacity];
+			}
+			Connect4Model position = model.copy();
+			int cells = position.getXLEN() * position.getYLEN();
+			if (path.length < cells + 1) {
+				path = new int[cells + 1];
+				moves = new int[cells];
+			}
+			size = 1;
+			visits[0] = 0;
+			scores[0] = 0;
+			firstChild[0] = -1;
+			flags[0] = 0;
+			playouts = 0;
+			while (playouts < budget) {
+				if ((playouts & STOP_CHECK_MASK) == 0 && shouldStop()) {
+					break;
+				}
+				playout(position, color);
+				playouts++;
+			}
+		}
+
+		/**
+		 * Selects, expands, plays out and backs up once. The position is left as
+		 * it was found.
+		 */
+		private void playout(Connect4Model position, int rootColor) {
+			int node = 0;
+			int depth = 0;
+			int color = rootColor;
+			int winner = 0;
+			path[0] = 0;
+			while (true) {
+				if ((flags[node] & WINNING) != 0) {
+					winner = 3 - color;
+					break;
+				}
+				if (firstChild[node] < 0) {
+					if (visits[node] > 0 || node == 0) {
+						expand(node, position, color);
+					}
+					if (firstChild[node] < 0) {
+						winner = rollout(position, color);
+						break;
+					}
+				}
+				node = select(node);
+				position.play(columns[node], color);
+				path[++depth] = node;
+				color = 3 - color;
+			}
+			// The color that moved into the deepest node is the one that did not move next.
+			int mover = 3 - color;
+			for (int step = depth; step >= 0; step--) {
+				int at = path[step];
+				visits[at]++;
+				scores[at] += winner == mover ? 2 : winner == 0 ? 1 : 0;
+				if (step > 0) {
+					position.undo(columns[at]);
+				}
+				mover = 3 - mover;
+			}
+		}
+
+		/**
+		 * Adds a child for each legal column if the arrays have room, marking the
+		 * ones that win. A full board gets no children.
+		 */
+		private void expand(int node, Connect4Model position, int color) {
+			int width = position.getYLEN();
+			if (size + width > visits.length) {
+				return;
+			}
+			int first = size;
+			for (int col = 0; col < width; col++) {
+				if (position.getRowPos(col) < 0) {
+					continue;
+				}
+				visits[size] = 0;
+				scores[size] = 0;
+				firstChild[size] = -1;
+				columns[size] = (byte) col;
+				flags[size] = position.isWinningMove(col, color) ? WINNING : 0;
+				size++;
+			}
+			if (size > first) {
+				firstChild[node] = first;
+				childCounts[node] = (byte) (size - first);
+			}
+		}
+
+		/**
+		 * Returns the child with the best UCT value, trying each child once first.
+		 */
+		private int select(int node) {
+			int first = firstChild[node];
+			int end = first + childCounts[node];
+			double logVisits = Math.log(visits[node]);
+			int best = first;
+			double bestValue = -1;
+			for (int child = first; child < end; child++) {
+				int seen = visits[child];
+				if (seen == 0) {
+					return child;
+				}
+				double value = scores[child] / (2.0 * seen) + EXPLORATION * Math.sqrt(logVisits / seen);
+				if (value > bestValue) {
+					bestValue = value;
+					best = child;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays random legal columns until a win or a full board and takes them
+		 * back.
+		 *
+		 * @return the winning color, 0 for a draw
+		 */
+		private int rollout(Connect4Model position, int color) {
+			int width = position.getYLEN();
+			int played = 0;
+			int winner = 0;
+			while (position.isBoardFull() == false) {
+				int col = nextInt(width);
+				while (position.getRowPos(col) < 0) {
+					col = col + 1 == width ? 0 : col + 1;
+				}
+				if (position.isWinningMove(col, color)) {
+					winner = color;
+					break;
+				}
+				position.play(col, color);
+				moves[played++] = col;
+				color = 3 - color;
+			}
+			while (played > 0) {
+				position.undo(moves[--played]);
+			}
+			return winner;
+		}
+
+		/**
+		 * Returns a random int from 0 up to bound with xorshift64*.
+		 */
+		private int nextInt(int bound) {
+			long x = seed;
+			x ^= x >>> 12;
+			x ^= x << 25;
+			x ^= x >>> 27;
+			seed = x;
+			return (int) (((x * 0x2545F4914F6CDD1DL) >>> 32) * bound >>> 32);
+		}
+
+		/**
+		 * Adds the visits of each root child to its column.
+		 */
+		private void addRootVisits(long[] totals) {
+			int first = firstChild[0];
+			if (first < 0) {
+				return;
+			}
+			for (int child = first; child < first + childCounts[0]; child++) {
+				totals[columns[child]] += visits[child];
+			}
+		}
+	}
+
+	/**
+	 * Asks a running search to return as soon as possible. It is safe to call
+	 * from another thread.
+	 */
+	public void stop() {
+		stopRequested = true;
+	}
+
+	/**
+	 * Clears a stop request so the next search runs. Call it before handing a
+	 * search to another thread, so a stop made after that is not lost.
+	 */
+	public void resetStop() {
+		stopRequested = false;
+	}
+
+	/**
+	 * Stops the helper threads. The search can not be used afterwards.
+	 */
+	public void shutdown() {
+		if (helpers != null) {
+			helpers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sets the playouts run by bestMove, shared between the threads.
+	 *
+	 * @param playoutBudget playouts per move
+	 */
+	public void setPlayoutBudget(long playoutBudget) {
+		this.playoutBudget = playoutBudget;
+	}
+
+	/**
+	 * Returns the number of threads searching.
+	 */
+	public int getThreads() {
+		return trees.length;
+	}
+
+	/**
+	 * Returns the playouts run by all threads in the last search.
+	 */
+	public long getPlayouts() {
+		return playouts;
+	}
+
+	/**
+	 * Returns the time taken by the last search in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the combined playout rate of the last search.
+	 */
+	public double getPlayoutsPerSecond() {
+		if (elapsedNanos == 0) {
+			return 0;
+		}
+		return playouts * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Returns the nodes in all trees at the end of the last search.
+	 */
+	public int getTreeSize() {
+		return treeSize;
+	}
+
+	/**
+	 * Returns the most nodes the trees can hold together.
+	 */
+	public long getNodeCapacity() {
+		long capacity = 0;
+		for (Tree tree : trees) {
+			capacity += tree.capacity;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Reports playouts per second and tree size at 1, 2, 4, 8 and all available
+	 * threads, searching a few openings on a board of the given size for the
+	 * given time.
+	 *
+	 * @param args optional milliseconds a move, megabytes of tree and a board given
+	 *             as ROWSxCOLUMNSxWINLENGTH
+	 */
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		long megabytes = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_MEMORY >> 20;
+		String[] board = (args.length > 2 ? args[2] : "6x7x4").split("x");
+		int[][] openings = { {}, { 3 }, { 3, 3 }, { 3, 2, 4 } };
+		int cores = Runtime.getRuntime().availableProcessors();
+		TreeSet<Integer> counts = new TreeSet<>();
+		for (int threads : new int[] { 1, 2, 4, 8, cores }) {
+			if (threads <= cores || threads == 1) {
+				counts.add(threads);
+			}
+		}
+
+		System.out.printf("%8s %14s %12s %12s%n", "threads", "playouts/sec", "tree nodes", "capacity");
+		for (int threads : counts) {
+			MonteCarloSearch search = new MonteCarloSearch(threads, megabytes << 20);
+			long totalPlayouts = 0;
+			long totalNanos = 0;
+			long largestTree = 0;
+			for (int[] opening : openings) {
+				Connect4Model model = new Connect4Model(Integer.parseInt(board[0]), Integer.parseInt(board[1]),
+						Integer.parseInt(board[2]));
+				int color = 1;
+				for (int col : opening) {
+					model.move(col, color);
+					color = 3 - color;
+				}
+				search.bestMoveTimed(model, color, millis);
+				totalPlayouts += search.getPlayouts();
+				totalNanos += search.getElapsedNanos();
+				largestTree = Math.max(largestTree, search.getTreeSize());
+			}
+			search.shutdown();
+			System.out.printf("%8d %14.0f %12d %12d%n", threads, totalPlayouts * 1e9 / totalNanos, largestTree,
+					search.getNodeCapacity());
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import model.Connect4Model;
+
+/**
+ * This Class looks up opening moves in a book file written by
+ * OpeningBookGenerator. The file is memory mapped, so opening a book does not
+ * read it onto the heap and lookups read the mapped pages directly.
+ *
+ * The file starts with a header of seven ints: MAGIC, VERSION, the number of
+ * records, the number of plies the book covers, and the rows, columns and win
+ * length of the board it was built for. Positions on any other board are never
+ * looked up, since their keys can match a position of the book's board. It is
+ * followed by fixed size
+ * records sorted by key, each a long key, a short score, a byte column and a
+ * byte search depth. A key is the position and color to move keyed by
+ * TranspositionTable.key, the same key the transposition table uses.
+ *
+ * @author Todd Noecker
+ */
+public class OpeningBook {
+
+	public static final int MAGIC = 0x43344248;
+	public static final int VERSION = 3;
+	static final int HEADER_BYTES = 28;
+	static final int RECORD_BYTES = 12;
+
+	private final MappedByteBuffer buffer;
+	private final int count;
+	private final int plies;
+	private final int rows;
+	private final int columns;
+	private final int winLength;
+	private long probes;
+	private long hits;
+
+	private OpeningBook(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		buffer.order(ByteOrder.BIG_ENDIAN);
+		if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not an opening book");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("Unsupported opening book version " + buffer.getInt(4));
+		}
+		count = buffer.getInt(8);
+		plies = buffer.getInt(12);
+		rows = buffer.getInt(16);
+		columns = buffer.getInt(20);
+		winLength = buffer.getInt(24);
+		if (buffer.capacity() < HEADER_BYTES + (long) count * RECORD_BYTES) {
+			throw new IOException("Opening book is truncated");
+		}
+	}
+
+	/**
+	 * Maps a book file.
+	 *
+	 * @param path book file
+	 * @return the opened book
+	 * @throws IOException if the file can not be read or is not a book
+	 */
+	public static OpeningBook open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed.
+			return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Returns the book move for a position.
+	 *
+	 * @param model current game
+	 * @param color color to move
+	 * @return the book column, -1 if the position is not in the book or is on
+	 *         another board
+	 */
+	public int probe(Connect4Model model, int color) {
+		if (fits(model) == false) {
+			return -1;
+		}
+		int record = find(key(model, color));
+		if (record < 0) {
+			return -1;
+		}
+		int move = buffer.get(HEADER_BYTES + record * RECORD_BYTES + 10);
+		// Never trust a book move the board can not take.
+		return model.getRowPos(move) >= 0 ? move : -1;
+	}
+
+	/**
+	 * Returns the stored score for a position, from the side of the color to move.
+	 *
+	 * @param model current game
+	 * @param color color to move
+	 * @return the score, 0 if the position is not in the book or is on another
+	 *         board
+	 */
+	public int score(Connect4Model model, int color) {
+		if (fits(model) == false) {
+			return 0;
+		}
+		int record = find(key(model, color));
+		return record < 0 ? 0 : buffer.getShort(HEADER_BYTES + record * RECORD_BYTES + 8);
+	}
+
+	/**
+	 * Binary searches the records for a key.
+	 *
+	 * @return the record index, -1 if the key is not in the book
+	 */
+	private int find(long key) {
+		probes++;
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midKey = buffer.getLong(HEADER_BYTES + mid * RECORD_BYTES);
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				hits++;
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if the book was built for the model's board.
+	 */
+	public boolean fits(Connect4Model model) {
+		return model.getXLEN() == rows && model.getYLEN() == columns && model.getWinLength() == winLength;
+	}
+
+	/**
+	 * Writes a header laid out like a book file.
+	 */
+	static void putHeader(ByteBuffer out, int count, int plies, Connect4Model board) {
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		out.putInt(count);
+		out.putInt(plies);
+		out.putInt(board.getXLEN());
+		out.putInt(board.getYLEN());
+		out.putInt(board.getWinLength());
+	}
+
+	/**
+	 * Returns the book key of a position.
+	 */
+	static long key(Connect4Model model, int color) {
+		return TranspositionTable.key(model, color);
+	}
+
+	/**
+	 * Writes one record into a buffer laid out like a book file.
+	 */
+	static void putRecord(ByteBuffer out, long key, int score, int move, int depth) {
+		out.putLong(key);
+		out.putShort((short) score);
+		out.put((byte) move);
+		out.put((byte) depth);
+	}
+
+	/**
+	 * Returns the number of positions in the book.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of plies the book was generated to.
+	 */
+	public int getPlies() {
+		return plies;
+	}
+
+	/**
+	 * Returns the share of lookups that found their position.
+	 */
+	public double getHitRate() {
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+}
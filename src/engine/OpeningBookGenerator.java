@@ -0,0 +1,170 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.Connect4Model;
+
+/**
+ * This Class builds an OpeningBook offline. It visits every position reachable
+ * in fewer than the given number of plies, with color one moving first, and
+ * searches each one to a fixed depth on all cores. The results are sorted by
+ * key and written in the OpeningBook file format.
+ *
+ * @author Todd Noecker
+ */
+public class OpeningBookGenerator {
+
+	private final int plies;
+	private final int depth;
+	private final int threads;
+	private final int tableMegabytes;
+
+	/**
+	 * Creates a generator.
+	 *
+	 * @param plies          positions with fewer pieces than this are solved
+	 * @param depth          search depth used for each position
+	 * @param threads        number of positions searched at once
+	 * @param tableMegabytes transposition table size for each thread
+	 */
+	public OpeningBookGenerator(int plies, int depth, int threads, int tableMegabytes) {
+		this.plies = plies;
+		this.depth = depth;
+		this.threads = Math.max(1, threads);
+		this.tableMegabytes = tableMegabytes;
+	}
+
+	/**
+	 * Solves the positions and writes the book.
+	 *
+	 * @param path file to write
+	 * @return the number of positions written
+	 * @throws IOException if the file can not be written
+	 */
+	public int generate(Path path) throws IOException {
+		List<Connect4Model> positions = new ArrayList<>();
+		List<Integer> colors = new ArrayList<>();
+		Connect4Model root = new Connect4Model();
+		collect(root, 1, 0, new HashSet<>(), positions, colors);
+
+		long[] keys = new long[positions.size()];
+		int[] moves = new int[positions.size()];
+		int[] scores = new int[positions.size()];
+		solve(positions, colors, keys, moves, scores);
+
+		// Sort the records by key through an index array.
+		Integer[] order = new Integer[keys.length];
+		for (int index = 0; index < order.length; index++) {
+			order[index] = index;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+		ByteBuffer out = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + keys.length * OpeningBook.RECORD_BYTES);
+		out.order(ByteOrder.BIG_ENDIAN);
+		OpeningBook.putHeader(out, keys.length, plies, root);
+		for (int index : order) {
+			OpeningBook.putRecord(out, keys[index], scores[index], moves[index], depth);
+		}
+		out.flip();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+		return keys.length;
+	}
+
+	/**
+	 * Walks the game tree collecting each unfinished position once.
+	 */
+	private void collect(Connect4Model model, int color, int ply, Set<Long> seen, List<Connect4Model> positions,
+			List<Integer> colors) {
+		if (ply >= plies || model.isBoardFull() || seen.add(OpeningBook.key(model, color)) == false) {
+			return;
+		}
+		positions.add(model);
+		colors.add(color);
+		for (int col = 0; col < model.getYLEN(); col++) {
+			if (model.getRowPos(col) < 0 || model.isWinningMove(col, color)) {
+				continue;
+			}
+			Connect4Model child = model.copy();
+			child.move(col, color);
+			collect(child, 3 - color, ply + 1, seen, positions, colors);
+		}
+	}
+
+	/**
+	 * Searches every position, one engine and table per thread.
+	 */
+	private void solve(List<Connect4Model> positions, List<Integer> colors, long[] keys, int[] moves, int[] scores)
+			throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ThreadLocal<Connect4Engine> engines = ThreadLocal.withInitial(() -> {
+			Connect4Engine engine = new Connect4Engine(depth, 0);
+			engine.setTranspositionTable(new TranspositionTable(tableMegabytes));
+			return engine;
+		});
+		List<Future<?>> running = new ArrayList<>();
+		for (int index = 0; index < positions.size(); index++) {
+			int slot = index;
+			running.add(pool.submit(() -> {
+				Connect4Engine engine = engines.get();
+				Connect4Model model = positions.get(slot);
+				int color = colors.get(slot);
+				keys[slot] = OpeningBook.key(model, color);
+				moves[slot] = engine.bestMove(model, color);
+				scores[slot] = engine.getLastScore();
+			}));
+		}
+		try {
+			for (Future<?> future : running) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Book generation was interrupted");
+		} catch (ExecutionException e) {
+			throw new IOException("Book generation failed: " + e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Generates a book from the command line.
+	 *
+	 * @param args file, plies, depth and optionally threads and table megabytes
+	 *             per thread
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: OpeningBookGenerator <file> <plies> <depth> [threads] [tableMB]");
+			return;
+		}
+		int threads = args.length > 3 ? Integer.parseInt(args[3])
+				: Runtime.getRuntime().availableProcessors();
+		int megabytes = args.length > 4 ? Integer.parseInt(args[4]) : TranspositionTable.DEFAULT_MEGABYTES;
+		OpeningBookGenerator generator = new OpeningBookGenerator(Integer.parseInt(args[1]),
+				Integer.parseInt(args[2]), threads, megabytes);
+		long start = System.nanoTime();
+		int count = generator.generate(Paths.get(args[0]));
+		System.out.printf("Wrote %d positions in %.1f s%n", count, (System.nanoTime() - start) / 1e9);
+	}
+}
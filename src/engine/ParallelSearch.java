@@ -0,0 +1,285 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.Connect4Model;
+
+/**
+ * This Class runs the engine on several threads at once using Lazy SMP. Every
+ * thread searches the same position with its own Connect4Engine and all of
+ * them share one TranspositionTable, so a position searched by one thread is a
+ * table hit for the others. The helpers start from different root moves and
+ * half of them search one ply deeper, which spreads the threads over the tree.
+ * The calling thread's result is the one played; when it finishes the helpers
+ * are stopped. A stop is kept until resetStop, so one that arrives before a
+ * search starts still stops it; whoever hands the search to another thread
+ * clears it first.
+ *
+ * The table is shared without locks: each entry's key is stored xor'd with its
+ * data, so a slot torn by two threads writing at once reads as a miss. The
+ * table's counters are not synchronized and are approximate while shared.
+ *
+ * @author Todd Noecker
+ */
+public class ParallelSearch {
+
+	private final Connect4Engine[] engines;
+	private final ExecutorService helpers;
+	private final TranspositionTable table;
+	private int maxDepth;
+	private long nodes;
+	private long elapsedNanos;
+
+	/**
+	 * Creates a search using the given number of threads, including the caller.
+	 *
+	 * @param threads    number of threads searching
+	 * @param maxDepth   deepest ply searched by the calling thread
+	 * @param nodeBudget most nodes each thread visits per move, 0 for no limit
+	 * @param table      table shared by all threads
+	 */
+	public ParallelSearch(int threads, int maxDepth, long nodeBudget, TranspositionTable table) {
+		this.maxDepth = maxDepth;
+		this.table = table;
+		engines = new Connect4Engine[Math.max(1, threads)];
+		for (int index = 0; index < engines.length; index++) {
+			engines[index] = new Connect4Engine(maxDepth, nodeBudget);
+			engines[index].setTranspositionTable(table);
+		}
+		if (engines.length > 1) {
+			helpers = Executors.newFixedThreadPool(engines.length - 1, (runnable) -> {
+				Thread thread = new Thread(runnable, "connect4-search");
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else {
+			helpers = null;
+		}
+	}
+
+	/**
+	 * Searches the model's position on all threads and returns the column to
+	 * play. The model is not changed.
+	 *
+	 * @param model current game
+	 * @param color color to move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMove(Connect4Model model, int color) {
+		return run(model, color, 0);
+	}
+
+	/**
+	 * Searches the model's position on all threads, deepening one ply at a time
+	 * until the time budget is spent, and returns the best column of the deepest
+	 * search the calling thread finished.
+	 *
+	 * @param model        current game
+	 * @param color        color to move
+	 * @param budgetMillis time allowed for the move
+	 * @return the chosen column, -1 if the board is full
+	 */
+	public int bestMoveTimed(Connect4Model model, int color, long budgetMillis) {
+		return run(model, color, System.nanoTime() + budgetMillis * 1_000_000);
+	}
+
+	/**
+	 * Starts the helpers, searches on the calling thread and stops the helpers
+	 * once it is done. A deadline of 0 searches to the fixed depth.
+	 */
+	private int run(Connect4Model model, int color, long deadline) {
+		long start = System.nanoTime();
+		table.newSearch();
+		for (int index = 0; index < engines.length; index++) {
+			engines[index].setMaxDepth(maxDepth);
+			// The helpers were stopped by the last search. The calling thread's
+			// engine keeps any stop request made since resetStop.
+			if (index > 0) {
+				engines[index].resetStop();
+			}
+		}
+
+		List<Future<Integer>> running = new ArrayList<>();
+		for (int index = 1; index < engines.length; index++) {
+			Connect4Engine helper = engines[index];
+			// Each engine searches its own copy, so the model is only read.
+			int skip = index % 2;
+			int rotation = index;
+			if (deadline == 0) {
+				running.add(helpers.submit(() -> helper.searchFixed(model, color, maxDepth + skip, rotation)));
+			} else {
+				helper.setMaxDepth(maxDepth + skip);
+				running.add(helpers.submit(() -> helper.searchTimed(model, color, deadline, 1 + skip, rotation)));
+			}
+		}
+
+		int move;
+		if (deadline == 0) {
+			move = engines[0].searchFixed(model, color, maxDepth, 0);
+		} else {
+			move = engines[0].searchTimed(model, color, deadline, 1, 0);
+		}
+
+		for (int index = 1; index < engines.length; index++) {
+			engines[index].stop();
+		}
+		nodes = engines[0].getNodes();
+		for (int index = 1; index < engines.length; index++) {
+			try {
+				running.get(index - 1).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				System.err.println("A search thread failed: " + e.getCause());
+			}
+			nodes += engines[index].getNodes();
+		}
+		elapsedNanos = System.nanoTime() - start;
+		return move;
+	}
+
+	/**
+	 * Returns the deepest ply the calling thread finished in the last search.
+	 */
+	public int getCompletedDepth() {
+		return engines[0].getCompletedDepth();
+	}
+
+	/**
+	 * Stops a running search from another thread. The calling thread's best move
+	 * so far is returned by bestMove.
+	 */
+	public void stop() {
+		for (Connect4Engine engine : engines) {
+			engine.stop();
+		}
+	}
+
+	/**
+	 * Clears a stop request so the next search runs. Call it before handing a
+	 * search to another thread, so a stop made after that is not lost.
+	 */
+	public void resetStop() {
+		for (Connect4Engine engine : engines) {
+			engine.resetStop();
+		}
+	}
+
+	/**
+	 * Stops the helper threads. The search can not be used afterwards.
+	 */
+	public void shutdown() {
+		if (helpers != null) {
+			helpers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Sets the deepest ply searched by the calling thread.
+	 *
+	 * @param maxDepth the depth limit
+	 */
+	public void setMaxDepth(int maxDepth) {
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Sets the most nodes each thread visits per move.
+	 *
+	 * @param nodeBudget the node limit, 0 for no limit
+	 */
+	public void setNodeBudget(long nodeBudget) {
+		for (Connect4Engine engine : engines) {
+			engine.setNodeBudget(nodeBudget);
+		}
+	}
+
+	/**
+	 * Returns the number of threads searching.
+	 */
+	public int getThreads() {
+		return engines.length;
+	}
+
+	/**
+	 * Returns the table shared by the threads.
+	 */
+	public TranspositionTable getTranspositionTable() {
+		return table;
+	}
+
+	/**
+	 * Returns the nodes visited by all threads in the last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the time taken by the last search in nanoseconds.
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Returns the combined throughput of the last search.
+	 */
+	public double getNodesPerSecond() {
+		if (elapsedNanos == 0) {
+			return 0;
+		}
+		return nodes * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Reports the speedup of searching a fixed set of openings at 1, 2, 4, 8 and
+	 * all available threads. Each run starts from an empty table of the same size.
+	 *
+	 * @param args optional depth and table size in megabytes
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+		int megabytes = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int[][] openings = { {}, { 3 }, { 3, 3 }, { 3, 2, 4 }, { 2, 3, 3, 4 }, { 0, 6, 1, 5, 3 } };
+		int cores = Runtime.getRuntime().availableProcessors();
+		TreeSet<Integer> counts = new TreeSet<>();
+		for (int threads : new int[] { 1, 2, 4, 8, cores }) {
+			if (threads <= cores || threads == 1) {
+				counts.add(threads);
+			}
+		}
+
+		double baseMillis = 0;
+		System.out.printf("%8s %12s %14s %10s%n", "threads", "millis", "nodes/sec", "speedup");
+		for (int threads : counts) {
+			ParallelSearch search = new ParallelSearch(threads, depth, 0, new TranspositionTable(megabytes));
+			long totalNanos = 0;
+			long totalNodes = 0;
+			for (int[] opening : openings) {
+				Connect4Model model = new Connect4Model();
+				int color = 1;
+				for (int col : opening) {
+					model.move(col, color);
+					color = 3 - color;
+				}
+				search.bestMove(model, color);
+				totalNanos += search.getElapsedNanos();
+				totalNodes += search.getNodes();
+			}
+			search.shutdown();
+			double millis = totalNanos / 1e6;
+			if (threads == 1) {
+				baseMillis = millis;
+			}
+			System.out.printf("%8d %12.1f %14.0f %10.2f%n", threads, millis, totalNodes * 1e9 / totalNanos,
+					baseMillis / millis);
+		}
+	}
+}
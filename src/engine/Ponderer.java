@@ -0,0 +1,321 @@
+package engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import model.Connect4Model;
+
+/**
+ * This Class searches during the opponent's turn, known as pondering. Once our
+ * move is played, start searches our answer to each of the opponent's replies
+ * in turn on a background thread: first the reply the transposition table
+ * predicts, the best move found for the opponent by the search that chose our
+ * move, then the others from the center outwards. Each answer is kept along
+ * with the table entries its search left behind.
+ *
+ * When the opponent's move arrives, take returns the answer already found for
+ * it, a ponder hit. If the reply being searched is the one played, its search
+ * is allowed to finish, since it is the search we would start anyway. Any other
+ * search is stopped, a ponder miss, and the caller searches as usual with a
+ * table warmed by the pondering. The engine must not be used by anyone else
+ * while pondering, so the background searches run one at a time and take waits
+ * for the last one to return.
+ *
+ * @author Todd Noecker
+ */
+public class Ponderer {
+
+	// The opponent has not moved yet.
+	private static final int WAITING = -2;
+
+	private final Connect4Engine engine;
+	private final Object lock = new Object();
+	private Connect4Model base;
+	private int color;
+	// Our answer to each opponent column, -1 if it was not searched, and the
+	// time and depth of that search.
+	private int[] answers = new int[0];
+	private long[] answerNanos = new long[0];
+	private int[] answerDepths = new int[0];
+	private long budgetMillis;
+	private int hitDepth;
+	private Future<?> running;
+	private int current = -1;
+	private int played = WAITING;
+	// The ponderer stopped the engine itself and clears the stop once its search
+	// has returned.
+	private boolean stoppedEngine;
+	private long hits;
+	private long misses;
+	private long savedNanos;
+
+	/**
+	 * Creates a ponderer searching with an engine. Its depth, node budget and
+	 * table are the ones used for every background search, which runs to the
+	 * engine's depth unless setMoveTimeBudget gives it a time.
+	 *
+	 * @param engine the engine, used only through the ponderer while pondering
+	 */
+	public Ponderer(Connect4Engine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Starts pondering a position after our move. Pondering already running is
+	 * stopped first. A finished game is not pondered.
+	 *
+	 * @param position the game after our move, copied
+	 * @param color    our color
+	 * @param executor runs the background searches
+	 */
+	public void start(Connect4Model position, int color, ExecutorService executor) {
+		stop();
+		if (position.isBoardFull()) {
+			return;
+		}
+		base = position.copy();
+		this.color = color;
+		int width = base.getYLEN();
+		if (answers.length != width) {
+			answers = new int[width];
+			answerNanos = new long[width];
+			answerDepths = new int[width];
+		}
+		Arrays.fill(answers, -1);
+		engine.resetStop();
+		synchronized (lock) {
+			played = WAITING;
+			current = -1;
+			running = executor.submit(this::ponder);
+		}
+	}
+
+	/**
+	 * Searches our answer to each opponent reply until the opponent moves.
+	 */
+	private void ponder() {
+		// The base is read by opponentMoved while this runs, so play on a copy.
+		Connect4Model position = base.copy();
+		int opponent = 3 - color;
+		int width = position.getYLEN();
+		int predicted = -1;
+		TranspositionTable table = engine.getTranspositionTable();
+		if (table != null) {
+			long entry = table.probe(TranspositionTable.key(position, opponent));
+			if (entry != 0) {
+				predicted = TranspositionTable.move(entry);
+			}
+			table.newSearch();
+		}
+		int middle = (width - 1) / 2;
+		for (int index = -1; index < width; index++) {
+			int offset = (index + 1) / 2;
+			int col = index < 0 ? predicted : index % 2 == 1 ? middle + offset : middle - offset;
+			if (col < 0 || (index >= 0 && col == predicted) || position.getRowPos(col) < 0) {
+				continue;
+			}
+			// A reply that wins ends the game, there is nothing to answer.
+			if (position.isWinningMove(col, opponent)) {
+				continue;
+			}
+			synchronized (lock) {
+				if (played != WAITING) {
+					return;
+				}
+				current = col;
+			}
+			position.play(col, opponent);
+			int move = budgetMillis > 0
+					? engine.searchTimed(position, color, System.nanoTime() + budgetMillis * 1_000_000, 1, 0)
+					: engine.searchFixed(position, color, engine.getMaxDepth(), 0);
+			position.undo(col);
+			synchronized (lock) {
+				// Stopped because the opponent played something else.
+				if (played != WAITING && played != col) {
+					return;
+				}
+			}
+			answers[col] = move;
+			answerNanos[col] = engine.getElapsedNanos();
+			answerDepths[col] = engine.getCompletedDepth();
+		}
+	}
+
+	/**
+	 * Tells the ponderer the opponent has moved without waiting for it. A search
+	 * of any other reply is stopped at once. Calling take later is still needed.
+	 *
+	 * @param position the game after the opponent's move
+	 */
+	public void opponentMoved(Connect4Model position) {
+		synchronized (lock) {
+			if (running == null || played != WAITING) {
+				return;
+			}
+			played = playedColumn(position);
+			if (played != current) {
+				stoppedEngine = true;
+				engine.stop();
+			}
+		}
+	}
+
+	/**
+	 * Returns our answer to the opponent's move if pondering found it, waiting
+	 * for the search of that reply to finish if it is running. Either way the
+	 * pondering is over when this returns and the engine is free.
+	 *
+	 * @param position the game after the opponent's move
+	 * @param color    color to move, which must be ours
+	 * @return the column to play, -1 if it was not pondered and must be searched
+	 */
+	public int take(Connect4Model position, int color) {
+		Future<?> task;
+		synchronized (lock) {
+			task = running;
+		}
+		if (task == null) {
+			return -1;
+		}
+		opponentMoved(position);
+		long start = System.nanoTime();
+		await(task);
+		long waited = System.nanoTime() - start;
+		int col;
+		synchronized (lock) {
+			col = played;
+			running = null;
+		}
+		clearStop();
+		// Not the pondered game one move on, a new game say, so nothing to count.
+		if (col < 0) {
+			return -1;
+		}
+		int move = color == this.color ? answers[col] : -1;
+		if (move < 0 || position.getRowPos(move) < 0) {
+			misses++;
+			return -1;
+		}
+		hits++;
+		hitDepth = answerDepths[col];
+		savedNanos += Math.max(0, answerNanos[col] - waited);
+		return move;
+	}
+
+	/**
+	 * Stops pondering and waits for the background search to return. Nothing is
+	 * counted as a hit or a miss, so this is also how to end pondering when the
+	 * answer is not wanted.
+	 */
+	public void stop() {
+		Future<?> task;
+		synchronized (lock) {
+			task = running;
+			running = null;
+			if (task != null) {
+				played = -1;
+				stoppedEngine = true;
+				engine.stop();
+			}
+		}
+		if (task != null) {
+			await(task);
+			clearStop();
+		}
+	}
+
+	/**
+	 * Clears a stop the ponderer made, once its search has returned, so the
+	 * engine's next search runs. A stop made by anyone else is kept.
+	 */
+	private void clearStop() {
+		synchronized (lock) {
+			if (stoppedEngine) {
+				stoppedEngine = false;
+				engine.resetStop();
+			}
+		}
+	}
+
+	private static void await(Future<?> task) {
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("A ponder search failed: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the column the opponent played on the pondered position, -1 if the
+	 * game is not the pondered one with one more move.
+	 */
+	private int playedColumn(Connect4Model position) {
+		if (position.getYLEN() != base.getYLEN() || position.getXLEN() != base.getXLEN()
+				|| position.getMoveCount() != base.getMoveCount() + 1) {
+			return -1;
+		}
+		int col = -1;
+		for (int index = 0; index < base.getYLEN(); index++) {
+			int grown = position.getHeight(index) - base.getHeight(index);
+			if (grown == 1 && col == -1) {
+				col = index;
+			} else if (grown != 0) {
+				return -1;
+			}
+		}
+		return col;
+	}
+
+	/**
+	 * Sets the time each background search may take, as the engine's timed
+	 * search uses for a move.
+	 *
+	 * @param millis time per reply in milliseconds, 0 to search to the engine's
+	 *               fixed depth
+	 */
+	public void setMoveTimeBudget(long millis) {
+		budgetMillis = millis;
+	}
+
+	/**
+	 * Returns the deepest ply finished by the search of the last ponder hit.
+	 */
+	public int getHitDepth() {
+		return hitDepth;
+	}
+
+	/**
+	 * Returns the number of opponent moves that had been pondered.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of opponent moves that had to be searched.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the share of opponent moves that had been pondered, 0 to 1.
+	 */
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * Returns the search time the ponder hits took off our moves in
+	 * milliseconds: the time their searches took less any time take waited for
+	 * them to finish.
+	 */
+	public long getSavedMillis() {
+		return savedNanos / 1_000_000;
+	}
+}
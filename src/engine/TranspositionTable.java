@@ -0,0 +1,236 @@
+package engine;
+
+import java.util.Arrays;
+
+import model.Connect4Model;
+
+/**
+ * This Class holds the results of positions already searched so the engine
+ * does not search the same position twice when it is reached through a
+ * different move order. Entries live in two long arrays sized from a memory
+ * budget: one holds the packed depth, bound, score and best move, the other
+ * holds the position key xor'd with that data so a slot holding another
+ * position is detected on probe.
+ *
+ * Replacement is depth preferred: a slot is overwritten when it is empty, holds
+ * the same position, was written by an older search, or holds a result that
+ * was searched no deeper than the new one.
+ *
+ * @author Todd Noecker
+ */
+public class TranspositionTable {
+
+	public static final int EXACT = 1;
+	public static final int LOWER = 2;
+	public static final int UPPER = 3;
+	public static final int DEFAULT_MEGABYTES = 16;
+
+	/*
+	 * Layout of a data word, low bits first: 16 bits score (offset so it is never
+	 * negative), 2 bits bound, 6 bits move + 1, 8 bits depth, 8 bits generation.
+	 * A bound is never 0, so a data word of 0 means an empty slot.
+	 */
+	private static final int ENTRY_BYTES = 16;
+	private static final int SCORE_OFFSET = 1 << 15;
+	private static final int BOUND_SHIFT = 16;
+	private static final int MOVE_SHIFT = 18;
+	private static final int DEPTH_SHIFT = 24;
+	private static final int GEN_SHIFT = 32;
+	private static final long COLOR2_KEY = 0xC2B2AE3D27D4EB4FL;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+	private int generation;
+
+	private long probes;
+	private long hits;
+	private long collisions;
+	private long stores;
+
+	/**
+	 * Creates a table using at most the given number of megabytes. The number of
+	 * entries is rounded down to a power of two.
+	 *
+	 * @param megabytes memory budget
+	 */
+	public TranspositionTable(int megabytes) {
+		long entries = Math.max(1L, (long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+		int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+		keys = new long[size];
+		data = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the key of a position with a color to move. The position key uses
+	 * all 64 bits on a board of 7 rows and 8 columns, so the color is not shifted
+	 * in; color 2 to move xors the key with a constant instead.
+	 *
+	 * @param position the position
+	 * @param color    color to move
+	 * @return the key to probe and store with
+	 */
+	public static long key(Connect4Model position, int color) {
+		return color == 2 ? position.getPositionKey() ^ COLOR2_KEY : position.getPositionKey();
+	}
+
+	/**
+	 * Looks a position up.
+	 *
+	 * @param key position key
+	 * @return the packed data word, 0 if the position is not stored
+	 */
+	public long probe(long key) {
+		probes++;
+		int index = index(key);
+		long entry = data[index];
+		if (entry == 0) {
+			return 0;
+		}
+		if ((keys[index] ^ entry) != key) {
+			collisions++;
+			return 0;
+		}
+		hits++;
+		return entry;
+	}
+
+	/**
+	 * Stores the result of a search.
+	 *
+	 * @param key   position key
+	 * @param depth depth the position was searched to
+	 * @param score score for the color to move
+	 * @param bound EXACT, LOWER or UPPER
+	 * @param move  best column found, -1 if none
+	 */
+	public void store(long key, int depth, int score, int bound, int move) {
+		int index = index(key);
+		long old = data[index];
+		if (old != 0 && (keys[index] ^ old) != key && generation(old) == (generation & 0xFF)
+				&& depth(old) > depth) {
+			return;
+		}
+		long entry = (long) (score + SCORE_OFFSET) | (long) bound << BOUND_SHIFT
+				| (long) (move + 1) << MOVE_SHIFT | (long) depth << DEPTH_SHIFT
+				| (long) (generation & 0xFF) << GEN_SHIFT;
+		data[index] = entry;
+		keys[index] = key ^ entry;
+		stores++;
+	}
+
+	/**
+	 * Marks the start of a new search. Entries from older searches are replaced
+	 * first.
+	 */
+	public void newSearch() {
+		generation++;
+	}
+
+	/**
+	 * Empties the table and resets the counters.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+		resetStats();
+	}
+
+	/**
+	 * Resets the hit and collision counters.
+	 */
+	public void resetStats() {
+		probes = 0;
+		hits = 0;
+		collisions = 0;
+		stores = 0;
+	}
+
+	private int index(long key) {
+		// Mix the key so positions that differ only in high columns spread out.
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	/**
+	 * Returns the score held in a data word.
+	 */
+	public static int score(long entry) {
+		return (int) (entry & 0xFFFF) - SCORE_OFFSET;
+	}
+
+	/**
+	 * Returns the bound held in a data word.
+	 */
+	public static int bound(long entry) {
+		return (int) (entry >>> BOUND_SHIFT & 0x3);
+	}
+
+	/**
+	 * Returns the best column held in a data word, -1 if none.
+	 */
+	public static int move(long entry) {
+		return (int) (entry >>> MOVE_SHIFT & 0x3F) - 1;
+	}
+
+	/**
+	 * Returns the search depth held in a data word.
+	 */
+	public static int depth(long entry) {
+		return (int) (entry >>> DEPTH_SHIFT & 0xFF);
+	}
+
+	private static int generation(long entry) {
+		return (int) (entry >>> GEN_SHIFT & 0xFF);
+	}
+
+	/**
+	 * Returns the number of entries the table holds.
+	 */
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/**
+	 * Returns the number of lookups since the counters were reset.
+	 */
+	public long getProbes() {
+		return probes;
+	}
+
+	/**
+	 * Returns the number of lookups that found their position.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that found another position in the slot.
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Returns the number of entries written.
+	 */
+	public long getStores() {
+		return stores;
+	}
+
+	/**
+	 * Returns the share of probes that found their position.
+	 */
+	public double getHitRate() {
+		return probes == 0 ? 0 : (double) hits / probes;
+	}
+
+	/**
+	 * Returns the share of probes that found a slot holding another position.
+	 */
+	public double getCollisionRate() {
+		return probes == 0 ? 0 : (double) collisions / probes;
+	}
+}
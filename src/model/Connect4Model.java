@@ -1,39 +1,113 @@
 package model;
 
-import java.util.Observable;
+import java.util.Arrays;
 import java.util.Observer;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * This Class functions as the model for the Connect4Game. It maintains the game
- * state with two arrays. a 2-d array which holds the current board state, and a
- * rowPos array which maintains the current column's row position. This model
- * will also maintain the current turn for the user.
+ * state as a bitboard: a mask of long words for each color and one for every
+ * occupied cell, whose bit count in a column is the column's height. The board
+ * has XLEN rows and YLEN columns, 6 and 7 by default, and a player needs a line
+ * of winLength pieces, 4 by default, to win; all three are set per model. Each
+ * column takes XLEN + 1 bits of a word (the extra bit is always empty) and a
+ * column never spans two words, so a cell in column y at height h is bit
+ * columnBase[y] + h. The first word of each mask is a field and only larger
+ * boards keep more words in an array, so the standard board, which fits in one
+ * word, copies and moves as cheaply as a fixed size board. Height 0 is the
+ * bottom of the board, which is row XLEN - 1 in the x/y coordinates used by the
+ * view. This model will also maintain the current turn for the user.
+ * 
+ * Moves are reported to MoveListeners. The listeners are kept in an array that
+ * is replaced, never changed, when one is added or removed, so a move reads it
+ * without locking or allocating, and a model without listeners, such as the
+ * copies an engine searches, pays only for an empty loop. Copies start without
+ * listeners.
  * 
  * @author Todd Noecker
  */
 
 @SuppressWarnings("deprecation")
-public class Connect4Model extends Observable {
+public class Connect4Model {
 	/*
-	 * These class fields represent the game board given by an XLEN x YLEN size and
-	 * will occupy an int 2-d array which will maintain the state of the current
-	 * connect 4 game.
+	 * The default board. The largest board has MAX_ROWS rows, so a column still
+	 * fits in a word, and MAX_COLUMNS columns, the most a move in the
+	 * transposition table or a MoveCodec frame can name.
 	 */
-	private static int XLEN = 6;
-	private static int YLEN = 7;
+	public static final int DEFAULT_ROWS = 6;
+	public static final int DEFAULT_COLUMNS = 7;
+	public static final int DEFAULT_WIN_LENGTH = 4;
+	public static final int MAX_ROWS = 63;
+	public static final int MAX_COLUMNS = 62;
+	private static final Layout DEFAULT_LAYOUT = new Layout(DEFAULT_ROWS, DEFAULT_COLUMNS, DEFAULT_WIN_LENGTH);
+
+	// Mask kinds, in the order their extra words are kept in wideBits.
+	private static final int COLOR1 = 0;
+	private static final int COLOR2 = 1;
+	private static final int OCCUPIED = 2;
+
+	private static final MoveListener[] NO_LISTENERS = new MoveListener[0];
+	private static final AtomicReferenceFieldUpdater<Connect4Model, MoveListener[]> LISTENERS = AtomicReferenceFieldUpdater
+			.newUpdater(Connect4Model.class, MoveListener[].class, "listeners");
 
-	private int rowPos[];
-	private int gameboard[][];
+	private final Layout layout;
+	private long colorBits1;
+	private long colorBits2;
+	private long occupied;
+	// Words after the first of each mask, null when the board fits in one word.
+	private final long[] wideBits;
+	private int pieces;
 	private boolean myTurn;
+	private volatile MoveListener[] listeners = NO_LISTENERS;
 
+	/**
+	 * Creates the standard 6 row, 7 column board where four in a row wins.
+	 */
 	public Connect4Model() {
-		gameboard = genGameBoard();
-		rowPos = genInitRowPos();
+		this(DEFAULT_LAYOUT);
+	}
+
+	/**
+	 * Creates an empty board of any size.
+	 * 
+	 * @param rows      number of rows, XLEN
+	 * @param columns   number of columns, YLEN
+	 * @param winLength pieces in a line needed to win
+	 */
+	public Connect4Model(int rows, int columns, int winLength) {
+		this(rows == DEFAULT_ROWS && columns == DEFAULT_COLUMNS && winLength == DEFAULT_WIN_LENGTH
+				? DEFAULT_LAYOUT
+				: new Layout(rows, columns, winLength));
+	}
+
+	private Connect4Model(Layout layout) {
+		this.layout = layout;
+		this.wideBits = layout.words == 1 ? null : new long[3 * (layout.words - 1)];
+	}
+
+	private Connect4Model(Connect4Model other) {
+		this.layout = other.layout;
+		this.colorBits1 = other.colorBits1;
+		this.colorBits2 = other.colorBits2;
+		this.occupied = other.occupied;
+		this.wideBits = other.wideBits == null ? null : other.wideBits.clone();
+		this.pieces = other.pieces;
+		this.myTurn = other.myTurn;
+	}
+
+	/**
+	 * Returns a copy of this model's game state. The copy has no listeners, so
+	 * it can be used for look ahead without updating the view.
+	 * 
+	 * @return a new model holding the same board and turn state
+	 */
+	public Connect4Model copy() {
+		return new Connect4Model(this);
 	}
 
 	/**
 	 * Makes a move based on the passed int value and color. 
-	 * The x cord is determined by the rowPos array and will provide the correct x cord.
+	 * The x cord is determined by the column height and will provide the correct x cord.
 	 * This method still needs to handle being passed a full row cord, or it could
 	 * be handled elsewhere.
 	 * @param y     input cord y
@@ -41,27 +115,134 @@ public class Connect4Model extends Observable {
 	 */
 	public void move(int y, int color) {
 
-		if (rowPos[y] >= 0) {
-			gameboard[rowPos[y]][y] = color;
-			this.setChanged();
-			this.notifyObservers(new Connect4MoveMessage(y, rowPos[y], color));
-			this.clearChanged();
-			rowPos[y] = rowPos[y] - 1;
+		int height = getHeight(y);
+		if (height < layout.rows) {
+			place(layout.columnBase[y] + height, color);
+			for (MoveListener listener : listeners) {
+				listener.moveMade(layout.rows - 1 - height, y, color);
+			}
 		} else {
 			// Then the row is full.
 		}
 	}
 
 	/**
-	 * This method adds a passed observer to this model.
+	 * Plays a piece the way move does but without telling the listeners. With
+	 * undo it lets a search play and take back moves on one model instead of
+	 * copying the board at every node, so nothing is allocated. The column must
+	 * not be full, which is not checked.
+	 * 
+	 * @param y     column to play
+	 * @param color color to play, 0 fills the cell without a color
+	 */
+	public void play(int y, int color) {
+		place(layout.columnBase[y] + getHeight(y), color);
+	}
+
+	/**
+	 * Takes back the top piece of a column, whichever color it is, without
+	 * telling the listeners. Undoing the moves of play in reverse order gives
+	 * back the board exactly, including its position key.
 	 * 
-	 * @param o Observer object passed from Observable.
-	 * Adds a passed observer to this model.
+	 * @param y column to take the piece from
+	 * @throws IllegalStateException if the column is empty
+	 */
+	public void undo(int y) {
+		int height = getHeight(y);
+		if (height == 0) {
+			throw new IllegalStateException("Column " + y + " is empty");
+		}
+		int bit = layout.columnBase[y] + height - 1;
+		long keep = ~(1L << bit);
+		if (bit < 64) {
+			occupied &= keep;
+			colorBits1 &= keep;
+			colorBits2 &= keep;
+		} else {
+			int index = (bit >>> 6) - 1;
+			int kindWords = layout.words - 1;
+			wideBits[OCCUPIED * kindWords + index] &= keep;
+			wideBits[COLOR1 * kindWords + index] &= keep;
+			wideBits[COLOR2 * kindWords + index] &= keep;
+		}
+		pieces--;
+	}
+
+	private void place(int bit, int color) {
+		long mask = 1L << bit;
+		if (bit < 64) {
+			occupied |= mask;
+			if (color == 1) {
+				colorBits1 |= mask;
+			} else if (color == 2) {
+				colorBits2 |= mask;
+			}
+		} else {
+			setWide(OCCUPIED, bit, mask);
+			if (color == 1) {
+				setWide(COLOR1, bit, mask);
+			} else if (color == 2) {
+				setWide(COLOR2, bit, mask);
+			}
+		}
+		pieces++;
+	}
+
+	/**
+	 * This method adds a passed observer to this model. The observer is wrapped
+	 * in an ObserverAdapter, so it gets a Connect4MoveMessage for each move as
+	 * before; new code should use addMoveListener.
 	 * 
 	 * @param o Observer
 	 */
 	public void addObs(Observer o) {
-		this.addObserver(o);
+		addMoveListener(new ObserverAdapter(o));
+	}
+
+	/**
+	 * Adds a listener for the moves made on this model. It may be called from
+	 * any thread, and a move being made at the same time may or may not reach
+	 * the new listener.
+	 * 
+	 * @param listener the listener
+	 */
+	public void addMoveListener(MoveListener listener) {
+		MoveListener[] current;
+		MoveListener[] next;
+		do {
+			current = listeners;
+			next = Arrays.copyOf(current, current.length + 1);
+			next[current.length] = listener;
+		} while (LISTENERS.compareAndSet(this, current, next) == false);
+	}
+
+	/**
+	 * Removes a listener added with addMoveListener.
+	 * 
+	 * @param listener the listener
+	 * @return true if the listener was found
+	 */
+	public boolean removeMoveListener(MoveListener listener) {
+		MoveListener[] current;
+		MoveListener[] next;
+		do {
+			current = listeners;
+			int index = Arrays.asList(current).indexOf(listener);
+			if (index < 0) {
+				return false;
+			}
+			next = new MoveListener[current.length - 1];
+			System.arraycopy(current, 0, next, 0, index);
+			System.arraycopy(current, index + 1, next, index, next.length - index);
+		} while (LISTENERS.compareAndSet(this, current, next) == false);
+		return true;
+	}
+
+	/**
+	 * Returns the number of listeners.
+	 */
+	public int getMoveListenerCount() {
+		return listeners.length;
 	}
 
 	/**
@@ -103,61 +284,86 @@ public class Connect4Model extends Observable {
 	 * 
 	 * @param x X index
 	 * @param y Y indsex
-	 * @return gameboard[x][y] current value at provided indicies
+	 * @return current value at provided indicies
 	 */
 	public int getSlot(int x, int y) {
-
-		return gameboard[x][y];
+		int bit = layout.columnBase[y] + (layout.rows - 1 - x);
+		if ((word(COLOR1, bit) >>> bit & 1L) != 0) {
+			return 1;
+		}
+		if ((word(COLOR2, bit) >>> bit & 1L) != 0) {
+			return 2;
+		}
+		return 0;
 	}
 
 	/**
 	 * Returns the current row position.
 	 * 
 	 * @param x Corresponds to a column
-	 * @return rowPos[x] Current row position
+	 * @return Current row position, -1 if the column is full
 
 	 */
 	public int getRowPos(int y) {
 
-		return rowPos[y];
+		return layout.rows - 1 - getHeight(y);
 	}
 
 	/**
+	 * Returns the number of pieces in a column.
+	 * 
+	 * @param y Corresponds to a column
+	 * @return the column height, 0 for an empty column and XLEN for a full one
+	 */
+	public int getHeight(int y) {
+		int base = layout.columnBase[y];
+		long word = base < 64 ? occupied : wideBits[OCCUPIED * (layout.words - 1) + (base >>> 6) - 1];
+		return Long.bitCount(word >>> base & layout.columnMask);
+	}
 
-	 * This method will return the fixed X length used to establish the board.
-	 * @return the fixed X length for the game board default 6.
-
-	 * Returns the fixed X length used to establish the board.
+	/**
+	 * This method will return the X length used to establish the board, the
+	 * number of rows.
 	 * 
-	 * @return XLEN
+	 * @return XLEN, default 6
 	 */
 	public int getXLEN() {
-		return XLEN;
+		return layout.rows;
 	}
 
 	/**
-	 * This method will return the fixed Y length used to establish the board.
-	 * 	 * @return the fixed Y length for the game board default 7.
-	 * Returns the fixed Y length used to establish the board.
+	 * This method will return the Y length used to establish the board, the
+	 * number of columns.
 	 * 
-	 * @return YLEN
+	 * @return YLEN, default 7
 	 */
 	public int getYLEN() {
-		return YLEN;
+		return layout.columns;
+	}
+
+	/**
+	 * Returns the number of pieces in a line needed to win.
+	 * 
+	 * @return the win length, default 4
+	 */
+	public int getWinLength() {
+		return layout.winLength;
+	}
+
+	/**
+	 * Returns the number of pieces played.
+	 */
+	public int getMoveCount() {
+		return pieces;
 	}
 
 	/**
 	 * This method will check each row index for an open space, if none are found,
-	 * then the game board has no open positions and it is full.
+	 * then the game board has no open positions and it is full. Counting the
+	 * pieces played makes this a single compare.
 	 */
 	public boolean isBoardFull() {
-		for (int index = 0; index < YLEN; index++) {
-
-			if (rowPos[index] >= 0) {
-				return false;
-			}
-		}
-		return true;
+		return pieces == layout.cells;
 	}
 
 	/**
@@ -195,19 +401,282 @@ public class Connect4Model extends Observable {
 		return 0;
 	}
 
+	/**
+	 * Checks for a win using only the lines through the cell that was just
+	 * filled, as reported by a Connect4MoveMessage. Unlike checkForWin(color) this
+	 * does not scan the board: it walks at most winLength - 1 cells each way along
+	 * the four directions through the cell, so the cost does not grow with the
+	 * board.
+	 * 
+	 * @param x     row of the last move
+	 * @param y     column of the last move
+	 * @param color color of the last move
+	 * @return 1, player one wins 2, player 2 wins, 3,game board full 0, game not
+	 *         over
+	 */
+	public int checkForWin(int x, int y, int color) {
+		if (isWinAt(x, y, color)) {
+			return color;
+		}
+		if (isBoardFull()) {
+			return 3;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns true if the given cell is part of a winning line for the color.
+	 * 
+	 * @param x     row of the cell
+	 * @param y     column of the cell
+	 * @param color color to check
+	 */
+	public boolean isWinAt(int x, int y, int color) {
+		int kind = colorKind(color);
+		int height = layout.rows - 1 - x;
+		if (kind < 0 || isSet(kind, y, height) == false) {
+			return false;
+		}
+		return connects(kind, y, height);
+	}
+
+	/**
+	 * Returns true if playing the color in column y would complete a winning
+	 * line. The board is not changed, which lets a search look for immediate wins
+	 * without making the move.
+	 * 
+	 * @param y     column to test
+	 * @param color color to play
+	 */
+	public boolean isWinningMove(int y, int color) {
+		int height = getHeight(y);
+		int kind = colorKind(color);
+		if (height >= layout.rows || kind < 0) {
+			return false;
+		}
+		return connects(kind, y, height);
+	}
+
+	/**
+	 * Returns a key that identifies the position of the colored pieces. Adding the
+	 * bottom cells to the occupied cells of a word leaves one bit just above the
+	 * top of each column, and adding color one's cells below it keeps every
+	 * column distinct, so on a board that fits one word, such as the standard
+	 * board, the key is exact. The words of larger boards are mixed into a hash.
+	 * 
+	 * @return the position key
+	 */
+	public long getPositionKey() {
+		long key = colorBits1 + (occupied + layout.bottomMask[0]);
+		for (int word = 1; word < layout.words; word++) {
+			int bit = word << 6;
+			key = (key ^ word(COLOR1, bit) + (word(OCCUPIED, bit) + layout.bottomMask[word])) * 0x9E3779B97F4A7C15L;
+			key ^= key >>> 31;
+		}
+		return key;
+	}
+
+	/**
+	 * Returns the number of empty cells that would complete a line for the color
+	 * after it plays column y, whether or not those cells can be played yet. A
+	 * search tries moves that make threats early. On a board that fits one word
+	 * the cells are found for the whole board at once with shifts of the color's
+	 * word. On larger boards only the cells on the four lines through the move
+	 * are checked: threats elsewhere are the same whichever column is played, so
+	 * the moves still sort the same way.
+	 * 
+	 * @param y     column to play, which must not be full
+	 * @param color color to play
+	 */
+	public int countThreatsAfter(int y, int color) {
+		int kind = colorKind(color);
+		if (kind < 0) {
+			return 0;
+		}
+		if (wideBits != null) {
+			return countWideThreatsAfter(y, color, kind);
+		}
+		long move = 1L << layout.columnBase[y] + getHeight(y);
+		long bits = (kind == COLOR1 ? colorBits1 : colorBits2) | move;
+		return Long.bitCount(winningCells(bits, layout) & ~(occupied | move) & layout.cellMask);
+	}
+
+	/**
+	 * Counts the empty cells within a line's reach of a move on a board larger
+	 * than one word that complete a line once the move is played. The move is
+	 * played and taken back.
+	 */
+	private int countWideThreatsAfter(int y, int color, int kind) {
+		int height = getHeight(y);
+		int need = layout.winLength - 1;
+		int count = 0;
+		play(y, color);
+		for (int direction = 0; direction < 4; direction++) {
+			int stepY = direction == 0 ? 0 : 1;
+			int stepHeight = direction == 0 ? 1 : direction - 2;
+			for (int distance = -need; distance <= need; distance++) {
+				int col = y + distance * stepY;
+				int h = height + distance * stepHeight;
+				if (distance != 0 && col >= 0 && col < layout.columns && h >= 0 && h < layout.rows
+						&& isSet(OCCUPIED, col, h) == false && connects(kind, col, h)) {
+					count++;
+				}
+			}
+		}
+		undo(y);
+		return count;
+	}
+
+	/**
+	 * Returns true if the color would complete a line on the cell just above the
+	 * next piece in column y. Playing column y then hands that cell to whoever
+	 * moves next, so a search can try such moves last.
+	 * 
+	 * @param y     column to play
+	 * @param color color that could win above it
+	 */
+	public boolean isWinAbove(int y, int color) {
+		int height = getHeight(y) + 1;
+		int kind = colorKind(color);
+		if (height >= layout.rows || kind < 0) {
+			return false;
+		}
+		return connects(kind, y, height);
+	}
+
+	/**
+	 * Returns every bit of a single word board that would complete a line of
+	 * winLength with the given pieces, occupied or not. For each direction a
+	 * cell wins if it has i pieces in a row on one side and winLength - 1 - i on
+	 * the other; the empty bit above each column stops the shifts wrapping.
+	 */
+	private static long winningCells(long bits, Layout layout) {
+		int need = layout.winLength - 1;
+		long cells = 0;
+		for (int direction = 0; direction < 4; direction++) {
+			int step = direction == 0 ? 1 : layout.stride - 1 + direction - 1;
+			long below = -1L;
+			for (int before = 0; before <= need; before++) {
+				long above = -1L;
+				for (int after = 1; after <= need - before; after++) {
+					above &= after * step < 64 ? bits >>> after * step : 0;
+				}
+				cells |= below & above;
+				below &= (before + 1) * step < 64 ? bits << (before + 1) * step : 0;
+			}
+		}
+		return cells;
+	}
+
+	/**
+	 * Returns the mask kind of a color, -1 for any other value.
+	 */
+	private static int colorKind(int color) {
+		if (color == 1) {
+			return COLOR1;
+		}
+		if (color == 2) {
+			return COLOR2;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the word of a mask that holds a bit.
+	 */
+	private long word(int kind, int bit) {
+		if (bit < 64) {
+			return kind == COLOR1 ? colorBits1 : kind == COLOR2 ? colorBits2 : occupied;
+		}
+		return wideBits[kind * (layout.words - 1) + (bit >>> 6) - 1];
+	}
+
+	private void setWide(int kind, int bit, long mask) {
+		wideBits[kind * (layout.words - 1) + (bit >>> 6) - 1] |= mask;
+	}
+
+	/**
+	 * Returns true if a mask holds the cell at a column and height.
+	 */
+	private boolean isSet(int kind, int y, int height) {
+		int bit = layout.columnBase[y] + height;
+		return (word(kind, bit) >>> bit & 1L) != 0;
+	}
+
+	/**
+	 * Checks vertical, horizontal and the two diagonals through a cell, which
+	 * counts as held by the color whether it is set or not.
+	 */
+	private boolean connects(int kind, int y, int height) {
+		if (wideBits == null) {
+			return connectsBits(kind == COLOR1 ? colorBits1 : colorBits2, layout.columnBase[y] + height, layout);
+		}
+		int need = layout.winLength - 1;
+		return countLine(kind, y, height, 0, 1, need) >= need || countLine(kind, y, height, 1, 0, need) >= need
+				|| countLine(kind, y, height, 1, 1, need) >= need || countLine(kind, y, height, 1, -1, need) >= need;
+	}
+
+	/**
+	 * Checks the four lines through a bit of a single word board. Within a word
+	 * the columns are evenly spaced, so a line is a fixed bit step and the empty
+	 * bit above each column stops it wrapping.
+	 */
+	private static boolean connectsBits(long word, int bit, Layout layout) {
+		int need = layout.winLength - 1;
+		int stride = layout.stride;
+		int top = layout.boardBits;
+		return countBits(word, bit, 1, need, top) >= need || countBits(word, bit, stride, need, top) >= need
+				|| countBits(word, bit, stride - 1, need, top) >= need
+				|| countBits(word, bit, stride + 1, need, top) >= need;
+	}
+
+	/**
+	 * Counts the pieces next to a bit of a single word board in both directions
+	 * of a line, stopping at the number a win needs.
+	 */
+	private static int countBits(long word, int bit, int step, int need, int top) {
+		int count = 0;
+		for (int next = bit + step; count < need && next < top && (word >>> next & 1L) != 0; next += step) {
+			count++;
+		}
+		for (int next = bit - step; count < need && next >= 0 && (word >>> next & 1L) != 0; next -= step) {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Counts the pieces next to a cell in both directions of a line, stopping at
+	 * the number a win needs.
+	 */
+	private int countLine(int kind, int y, int height, int stepY, int stepHeight, int need) {
+		int count = 0;
+		int columns = layout.columns;
+		int rows = layout.rows;
+		for (int col = y + stepY, h = height + stepHeight; count < need && col < columns && h >= 0 && h < rows
+				&& isSet(kind, col, h); col += stepY, h += stepHeight) {
+			count++;
+		}
+		for (int col = y - stepY, h = height - stepHeight; count < need && col >= 0 && h >= 0 && h < rows
+				&& isSet(kind, col, h); col -= stepY, h -= stepHeight) {
+			count++;
+		}
+		return count;
+	}
+
 	/**
 	 * Checks each horizontal row in the game board for a win.
 	 * Win is checked with current color and returns true if game is won
 	 * 
 	 * @param color Current color
 	 */
-	private boolean horWinCheck(int color) {
-		for (int xIndex = 0; xIndex < XLEN; xIndex++) {
+	boolean horWinCheck(int color) {
+		for (int xIndex = 0; xIndex < layout.rows; xIndex++) {
 			int sameCount = 0;
-			for (int yIndex = 0; yIndex < YLEN; yIndex++) {
-				if (gameboard[xIndex][yIndex] == color) {
+			for (int yIndex = 0; yIndex < layout.columns; yIndex++) {
+				if (getSlot(xIndex, yIndex) == color) {
 					sameCount++;
-					if (sameCount == 4) {
+					if (sameCount == layout.winLength) {
 						return true;
 					}
 				} else {
@@ -225,31 +694,29 @@ public class Connect4Model extends Observable {
 	 * 
 	 * @param color Current color
 	 */
-	private boolean diagonalChecks(int color) {
+	boolean diagonalChecks(int color) {
 		int[][] checkDir = { { 1, 0 }, { 1, 1 }, { 0, 1 }, { 1, -1 } };
-		int checkLen = 4;
+		int checkLen = layout.winLength;
 		// Check each diagonal direction
 		for (int[] ord : checkDir) {
 			int dirX = ord[0];
 			int dirY = ord[1];
 			// Check all grid locations for a connect 4.
-			for (int xIndex = 0; xIndex < XLEN; xIndex++) {
-				for (int yIndex = 0; yIndex < YLEN; yIndex++) {
-					int maxX = xIndex + checkLen * dirX;
-					int maxY = yIndex + checkLen * dirY;
+			for (int xIndex = 0; xIndex < layout.rows; xIndex++) {
+				for (int yIndex = 0; yIndex < layout.columns; yIndex++) {
+					int maxX = xIndex + (checkLen - 1) * dirX;
+					int maxY = yIndex + (checkLen - 1) * dirY;
 					// Checks to see if maximum included values in a connect 4 are valid.
-					if (0 <= maxX && maxX < XLEN && 0 <= maxY && maxY < YLEN) {
-						int compare = gameboard[xIndex][yIndex];
-						// If comparison statement to see if all 4 indices contain the int color.
-						// This if statement is the final check to see if a connect 4 was made.
-						if (compare == color 
-								&& compare == gameboard[xIndex + dirX][yIndex + dirY]
-								&& compare == gameboard[xIndex + 2 * dirX][yIndex + 2 * dirY]
-								&& compare == gameboard[xIndex + 3 * dirX][yIndex + 3 * dirY]
-								&& compare == gameboard[maxX][maxY]) {
+					if (0 <= maxX && maxX < layout.rows && 0 <= maxY && maxY < layout.columns) {
+						// Checks whether all checkLen indices contain the int color.
+						// This is the final check to see if a connect 4 was made.
+						int step = 0;
+						while (step < checkLen && getSlot(xIndex + step * dirX, yIndex + step * dirY) == color) {
+							step++;
+						}
+						if (step == checkLen) {
 							return true;
 						}
-						// end if.
 					}
 				}
 			}
@@ -262,13 +729,13 @@ public class Connect4Model extends Observable {
 	*
 	*@param color Current Color
 	*/
-	private boolean vertWinCheck(int color) {
-		for (int yIndex = 0; yIndex < YLEN; yIndex++) {
+	boolean vertWinCheck(int color) {
+		for (int yIndex = 0; yIndex < layout.columns; yIndex++) {
 			int sameCount = 0;
-			for (int xIndex = 0; xIndex < XLEN; xIndex++) {
-				if (gameboard[xIndex][yIndex] == color) {
+			for (int xIndex = 0; xIndex < layout.rows; xIndex++) {
+				if (getSlot(xIndex, yIndex) == color) {
 					sameCount++;
-					if (sameCount == 4) {
+					if (sameCount == layout.winLength) {
 						return true;
 					}
 				} else {
@@ -280,30 +747,47 @@ public class Connect4Model extends Observable {
 	}
 
 	/**
-	 * Generate initial emput game board.
-	 * 0 is used for open spaces
+	 * The sizes of a board and where its columns sit in the words. It never
+	 * changes, so every model of the same size and its copies share one.
 	 */
-	private static int[][] genGameBoard() {
-		int[][] genBoard = new int[XLEN][YLEN];
-		for (int xIndex = 0; xIndex < XLEN; xIndex++) {
-			for (int yIndex = 0; yIndex < YLEN; yIndex++) {
-				genBoard[xIndex][yIndex] = 0;
-			}
-		}
-		return genBoard;
-	}
+	private static final class Layout {
+		private final int rows;
+		private final int columns;
+		private final int winLength;
+		private final int cells;
+		private final int words;
+		private final int stride;
+		private final int boardBits;
+		private final long columnMask;
+		private final int[] columnBase;
+		private final long[] bottomMask;
+		// Every cell of a board that fits in one word.
+		private final long cellMask;
 
-	/**
-	 * This method will generate an array of x positions to be used for keeping
-	 * track of the x positions in the gameboard. These can then be incremented to
-	 * indicate the next postions valid to place a game piece.
-	 */
-	private static int[] genInitRowPos() {
-		int[] genPos = new int[YLEN];
-
-		for (int index = 0; index < YLEN; index++) {
-			genPos[index] = XLEN - 1;
+		private Layout(int rows, int columns, int winLength) {
+			if (rows < 1 || rows > MAX_ROWS || columns < 1 || columns > MAX_COLUMNS) {
+				throw new IllegalArgumentException("Boards have 1 to " + MAX_ROWS + " rows and 1 to " + MAX_COLUMNS
+						+ " columns");
+			}
+			if (winLength < 2 || winLength > Math.max(rows, columns)) {
+				throw new IllegalArgumentException("A win length of " + winLength + " does not fit the board");
+			}
+			this.rows = rows;
+			this.columns = columns;
+			this.winLength = winLength;
+			this.cells = rows * columns;
+			this.stride = rows + 1;
+			int perWord = 64 / stride;
+			this.words = (columns + perWord - 1) / perWord;
+			this.boardBits = Math.min(64, columns * stride);
+			this.columnMask = (1L << rows) - 1;
+			this.columnBase = new int[columns];
+			this.bottomMask = new long[words];
+			for (int index = 0; index < columns; index++) {
+				columnBase[index] = index / perWord * 64 + index % perWord * stride;
+				bottomMask[index / perWord] |= 1L << columnBase[index];
+			}
+			this.cellMask = words == 1 ? bottomMask[0] * columnMask : 0;
 		}
-		return genPos;
 	}
 }
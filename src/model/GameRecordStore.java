@@ -0,0 +1,366 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This Class archives finished games in an append-only, memory mapped log file
+ * and plays them back. A game is stored as its columns, 3 bits a move, so a
+ * typical game takes about twenty bytes and hundreds of millions fit in a few
+ * gigabytes. Color 1 is assumed to move first and the colors to alternate.
+ *
+ * The file starts with a header of HEADER_BYTES: the int MAGIC, the int VERSION,
+ * the long number of games and the long offset where the next game goes. Each
+ * game is a four byte header, the number of moves as an unsigned short, the
+ * result and a reserved byte, followed by the moves packed low bits first. The
+ * file header is only updated once a game is completely written, so a game cut
+ * off by a crash is overwritten by the next one. The file is mapped in segments
+ * of 1 << SEGMENT_BITS bytes and grows a segment at a time.
+ *
+ * Results use the values of Connect4Controller.didColorWin: 0 for a game not
+ * finished, 1 or 2 for the winning color and 3 for a full board. Games may be
+ * appended from several threads.
+ *
+ * @author Todd Noecker
+ */
+public class GameRecordStore implements Closeable {
+
+	public static final int MAGIC = 0x43345247;
+	public static final int VERSION = 1;
+	public static final int MAX_COLUMNS = 8;
+	public static final int MAX_MOVES = 0xFFFF;
+	static final int HEADER_BYTES = 32;
+	static final int GAME_HEADER_BYTES = 4;
+	static final int SEGMENT_BITS = 26;
+	private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+	// Every INDEX_INTERVAL games the offset is kept, so finding a game reads at
+	// most INDEX_INTERVAL - 1 other game headers.
+	private static final int INDEX_INTERVAL = 64;
+
+	/**
+	 * Receives the stored games in order.
+	 */
+	public interface GameVisitor {
+		/**
+		 * Called with one game. The array is reused for the next game.
+		 *
+		 * @param game    index of the game
+		 * @param columns the columns played
+		 * @param count   number of moves
+		 * @param result  the stored result
+		 */
+		void visit(long game, int[] columns, int count, int result);
+	}
+
+	private final FileChannel channel;
+	private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private long[] index = new long[16];
+	private long games;
+	private long end;
+
+	private GameRecordStore(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Opens a store, creating the file if it does not exist.
+	 *
+	 * @param file the log file
+	 * @return the store, ready to append after the last game
+	 * @throws IOException if the file can not be mapped or is not a game log
+	 */
+	public static GameRecordStore open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		GameRecordStore store = new GameRecordStore(channel);
+		try {
+			store.load(channel.size() == 0);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return store;
+	}
+
+	private void load(boolean created) throws IOException {
+		if (created) {
+			ensureCapacity(HEADER_BYTES);
+			putInt(0, MAGIC);
+			putInt(4, VERSION);
+			end = HEADER_BYTES;
+			writeHeader();
+			return;
+		}
+		long size = channel.size();
+		if (size < HEADER_BYTES) {
+			throw new IOException("Not a game record file");
+		}
+		ensureCapacity(size);
+		if (getInt(0) != MAGIC) {
+			throw new IOException("Not a game record file");
+		}
+		if (getInt(4) != VERSION) {
+			throw new IOException("Unsupported game record version " + getInt(4));
+		}
+		long count = getLong(8);
+		end = getLong(16);
+		long offset = HEADER_BYTES;
+		for (games = 0; games < count; games++) {
+			if (games % INDEX_INTERVAL == 0) {
+				addIndex(offset);
+			}
+			offset += recordBytes(offset);
+		}
+		if (offset != end) {
+			throw new IOException("Game record file is damaged");
+		}
+	}
+
+	/**
+	 * Appends a game.
+	 *
+	 * @param columns the columns played, color 1 first
+	 * @param count   number of moves
+	 * @param result  0 if not finished, 1 or 2 for the winner, 3 for a full board
+	 * @return the index of the game
+	 * @throws IOException if the file can not grow
+	 */
+	public synchronized long append(int[] columns, int count, int result) throws IOException {
+		if (count < 0 || count > MAX_MOVES) {
+			throw new IllegalArgumentException("A game can hold at most " + MAX_MOVES + " moves");
+		}
+		if (result < 0 || result > 3) {
+			throw new IllegalArgumentException("Unknown result " + result);
+		}
+		long offset = end;
+		int bytes = GAME_HEADER_BYTES + (count * 3 + 7) / 8;
+		ensureCapacity(offset + bytes);
+		put(offset, count >>> 8);
+		put(offset + 1, count);
+		put(offset + 2, result);
+		put(offset + 3, 0);
+		long position = offset + GAME_HEADER_BYTES;
+		int bits = 0;
+		int pending = 0;
+		for (int move = 0; move < count; move++) {
+			int column = columns[move];
+			if (column < 0 || column >= MAX_COLUMNS) {
+				throw new IllegalArgumentException("Column " + column + " does not fit in 3 bits");
+			}
+			pending |= column << bits;
+			bits += 3;
+			if (bits >= 8) {
+				put(position++, pending);
+				pending >>>= 8;
+				bits -= 8;
+			}
+		}
+		if (bits > 0) {
+			put(position, pending);
+		}
+		if (games % INDEX_INTERVAL == 0) {
+			addIndex(offset);
+		}
+		games++;
+		end = offset + bytes;
+		writeHeader();
+		return games - 1;
+	}
+
+	/**
+	 * Returns the number of games stored.
+	 */
+	public synchronized long size() {
+		return games;
+	}
+
+	/**
+	 * Returns the number of moves of a game.
+	 *
+	 * @param game index of the game
+	 */
+	public synchronized int getMoveCount(long game) {
+		return moveCount(offset(game));
+	}
+
+	/**
+	 * Returns the result of a game.
+	 *
+	 * @param game index of the game
+	 */
+	public synchronized int getResult(long game) {
+		return get(offset(game) + 2);
+	}
+
+	/**
+	 * Reads the columns of a game.
+	 *
+	 * @param game    index of the game
+	 * @param columns array long enough for the game's moves
+	 * @return the number of moves
+	 */
+	public synchronized int readMoves(long game, int[] columns) {
+		return decode(offset(game), columns);
+	}
+
+	/**
+	 * Plays a game on a model through Connect4Model.move, color 1 first. The
+	 * model should be empty, and with no observers added it runs at full speed.
+	 *
+	 * @param game  index of the game
+	 * @param model model to play the game on
+	 * @return the number of moves played
+	 */
+	public synchronized int replay(long game, Connect4Model model) {
+		long offset = offset(game);
+		int count = moveCount(offset);
+		long position = offset + GAME_HEADER_BYTES;
+		int bits = 0;
+		int pending = 0;
+		int color = 1;
+		for (int move = 0; move < count; move++) {
+			if (bits < 3) {
+				pending |= get(position++) << bits;
+				bits += 8;
+			}
+			model.move(pending & 0x7, color);
+			pending >>>= 3;
+			bits -= 3;
+			color = 3 - color;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads every game in order without looking up offsets. Games appended while
+	 * this runs are not visited.
+	 *
+	 * @param visitor receives each game
+	 */
+	public void forEachGame(GameVisitor visitor) {
+		long count;
+		synchronized (this) {
+			count = games;
+		}
+		int[] columns = new int[MAX_MOVES];
+		long offset = HEADER_BYTES;
+		for (long game = 0; game < count; game++) {
+			int moves = decode(offset, columns);
+			visitor.visit(game, columns, moves, get(offset + 2));
+			offset += GAME_HEADER_BYTES + (moves * 3 + 7) / 8;
+		}
+	}
+
+	/**
+	 * Writes the mapped pages to the file.
+	 */
+	public synchronized void flush() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+
+	/**
+	 * Flushes and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	private int decode(long offset, int[] columns) {
+		int count = moveCount(offset);
+		long position = offset + GAME_HEADER_BYTES;
+		int bits = 0;
+		int pending = 0;
+		for (int move = 0; move < count; move++) {
+			if (bits < 3) {
+				pending |= get(position++) << bits;
+				bits += 8;
+			}
+			columns[move] = pending & 0x7;
+			pending >>>= 3;
+			bits -= 3;
+		}
+		return count;
+	}
+
+	private long offset(long game) {
+		if (game < 0 || game >= games) {
+			throw new IndexOutOfBoundsException("No game " + game);
+		}
+		long offset = index[(int) (game / INDEX_INTERVAL)];
+		for (long skip = game % INDEX_INTERVAL; skip > 0; skip--) {
+			offset += recordBytes(offset);
+		}
+		return offset;
+	}
+
+	private int moveCount(long offset) {
+		return get(offset) << 8 | get(offset + 1);
+	}
+
+	private int recordBytes(long offset) {
+		return GAME_HEADER_BYTES + (moveCount(offset) * 3 + 7) / 8;
+	}
+
+	private void addIndex(long offset) {
+		int slot = (int) (games / INDEX_INTERVAL);
+		if (slot == index.length) {
+			index = Arrays.copyOf(index, slot * 2);
+		}
+		index[slot] = offset;
+	}
+
+	private void writeHeader() {
+		putLong(8, games);
+		putLong(16, end);
+	}
+
+	/**
+	 * Maps segments until the file reaches a size.
+	 */
+	private void ensureCapacity(long size) throws IOException {
+		int needed = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+		if (needed <= segments.length) {
+			return;
+		}
+		MappedByteBuffer[] grown = Arrays.copyOf(segments, needed);
+		for (int segment = segments.length; segment < needed; segment++) {
+			grown[segment] = channel.map(FileChannel.MapMode.READ_WRITE, (long) segment << SEGMENT_BITS,
+					1L << SEGMENT_BITS);
+		}
+		segments = grown;
+	}
+
+	private int get(long position) {
+		return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & SEGMENT_MASK)) & 0xFF;
+	}
+
+	private void put(long position, int value) {
+		segments[(int) (position >>> SEGMENT_BITS)].put((int) (position & SEGMENT_MASK), (byte) value);
+	}
+
+	// The file header is always in the first segment.
+	private int getInt(int position) {
+		return segments[0].getInt(position);
+	}
+
+	private long getLong(int position) {
+		return segments[0].getLong(position);
+	}
+
+	private void putInt(int position, int value) {
+		segments[0].putInt(position, value);
+	}
+
+	private void putLong(int position, long value) {
+		segments[0].putLong(position, value);
+	}
+}
@@ -0,0 +1,21 @@
+package model;
+
+/**
+ * This Interface receives the moves made on a Connect4Model. It is called on the
+ * thread that made the move, with the cell as plain ints so nothing is
+ * allocated per move, and should return quickly.
+ * 
+ * @author Todd Noecker
+ */
+@FunctionalInterface
+public interface MoveListener {
+
+	/**
+	 * Called after a piece is placed.
+	 * 
+	 * @param x     row of the piece, 0 at the top
+	 * @param y     column of the piece
+	 * @param color color of the piece
+	 */
+	void moveMade(int x, int y, int color);
+}
@@ -0,0 +1,27 @@
+package model;
+
+import java.util.Observer;
+
+/**
+ * This Class lets an Observer written for the old Observable model receive
+ * moves from the listener API. Each move is passed to the observer as a
+ * Connect4MoveMessage built the way the model used to build it, with the column
+ * in getRow() and the row in getColumn(). The Observable argument is null since
+ * the model no longer is one.
+ * 
+ * @author Todd Noecker
+ */
+@SuppressWarnings("deprecation")
+final class ObserverAdapter implements MoveListener {
+
+	private final Observer observer;
+
+	ObserverAdapter(Observer observer) {
+		this.observer = observer;
+	}
+
+	@Override
+	public void moveMade(int x, int y, int color) {
+		observer.update(null, new Connect4MoveMessage(y, x, color));
+	}
+}
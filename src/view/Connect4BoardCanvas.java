@@ -0,0 +1,101 @@
+package view;
+
+import java.util.function.IntConsumer;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import model.Connect4Model;
+
+/**
+ * This Class draws the game board on a single Canvas instead of one Circle node
+ * per cell. The whole board is drawn from the model in one pass by redraw, and
+ * a move only repaints its own cell, so the cost of a frame does not depend on
+ * the number of nodes in the scene. This keeps large boards and fast computer
+ * against computer games smooth. The cells shrink on boards too large to fit
+ * at the size of the GridPane view.
+ * 
+ * @author Todd Noecker
+ */
+public class Connect4BoardCanvas extends Canvas {
+
+	public static final double CELL_RADIUS = 20;
+	public static final double CELL_GAP = 8;
+	// Largest board dimension drawn at full size; bigger boards are scaled down.
+	private static final int FULL_SIZE_CELLS = 15;
+
+	private final Connect4Model model;
+	private final double radius;
+	private final double pitch;
+
+	/**
+	 * Creates a canvas sized for the model's board and draws it.
+	 * 
+	 * @param model the model to draw
+	 */
+	public Connect4BoardCanvas(Connect4Model model) {
+		this.model = model;
+		double scale = Math.min(1, (double) FULL_SIZE_CELLS / Math.max(model.getXLEN(), model.getYLEN()));
+		this.radius = Math.max(2, CELL_RADIUS * scale);
+		this.pitch = 2 * radius + Math.max(1, CELL_GAP * scale);
+		setWidth(model.getYLEN() * pitch - (pitch - 2 * radius));
+		setHeight(model.getXLEN() * pitch - (pitch - 2 * radius));
+		redraw();
+	}
+
+	/**
+	 * Calls the handler with the column clicked, the way the circles of the
+	 * GridPane view report their column.
+	 * 
+	 * @param handler receives the column
+	 */
+	public void setOnColumnClicked(IntConsumer handler) {
+		setOnMouseClicked((event) -> {
+			int column = columnAt(event.getX());
+			if (column >= 0) {
+				handler.accept(column);
+			}
+		});
+	}
+
+	/**
+	 * Returns the column under a horizontal position, or -1 if it is off the
+	 * board.
+	 * 
+	 * @param x position in the canvas
+	 */
+	public int columnAt(double x) {
+		int column = (int) Math.floor(x / pitch);
+		return column >= 0 && column < model.getYLEN() ? column : -1;
+	}
+
+	/**
+	 * Draws every cell from the model in one pass.
+	 */
+	public void redraw() {
+		GraphicsContext graphics = getGraphicsContext2D();
+		graphics.setFill(Color.BLUE);
+		graphics.fillRect(0, 0, getWidth(), getHeight());
+		for (int row = 0; row < model.getXLEN(); row++) {
+			for (int column = 0; column < model.getYLEN(); column++) {
+				fillCell(graphics, row, column, model.getSlot(row, column));
+			}
+		}
+	}
+
+	/**
+	 * Repaints one cell with a color.
+	 * 
+	 * @param row    row of the cell, 0 at the top
+	 * @param column column of the cell
+	 * @param color  0 for empty, 1 for red and 2 for yellow
+	 */
+	public void drawCell(int row, int column, int color) {
+		fillCell(getGraphicsContext2D(), row, column, color);
+	}
+
+	private void fillCell(GraphicsContext graphics, int row, int column, int color) {
+		graphics.setFill(color == 1 ? Color.RED : color == 2 ? Color.YELLOW : Color.WHITE);
+		graphics.fillOval(column * pitch, row * pitch, 2 * radius, 2 * radius);
+	}
+}
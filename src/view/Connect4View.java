@@ -1,12 +1,15 @@
 
 package view;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
-import java.util.Observable;
-import java.util.Observer;
+import java.io.IOException;
+import java.nio.file.Paths;
 import controller.Connect4Controller;
+import engine.EndgameTable;
+import engine.MonteCarloSearch;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -26,26 +29,34 @@ import javafx.stage.Modality;
 import javafx.stage.Stage;
 import model.Connect4Model;
 import model.Connect4MoveMessage;
+import model.GameRecordStore;
 
 /**
  *
  * This Class functions as the graphical view of the Connect4 program. It
  * functions through the event handler. This class is intended for Online use
  * and will first establish a client/server connection. The main display for
- * this method is updated through the update() method. This GUI view is called
+ * this method is updated once a frame by applyUpdates(), which paints the moves
+ * a MoveUpdateQueue has collected since the last frame. This GUI view is called
  * from the Connect4 class containing main, and it's start method can be called
  * from the New Game button this GUI will present.
  * 
+ * Started with -Dconnect4.renderer=canvas the board is drawn by a
+ * Connect4BoardCanvas instead of a GridPane of circles.
+ * 
  * @author Todd Noecker
  */
 
-@SuppressWarnings("deprecation")
-public class Connect4View extends Application implements Observer {
+public class Connect4View extends Application {
 
 	private BorderPane borderPane;
 	private GridPane gameBoard;
+	private Circle[][] cells;
+	private Connect4BoardCanvas boardCanvas;
+	private Node boardView;
 	private Connect4Controller gameCntr;
 	private Connect4Model gameModel;
+	private MoveUpdateQueue updates;
 	private boolean isComp = false;
 
 	/**
@@ -59,7 +70,52 @@ public class Connect4View extends Application implements Observer {
 		gameBoard = new GridPane();
 		gameModel = new Connect4Model();
 		gameCntr = new Connect4Controller(gameModel);
-		gameModel.addObs(this);
+		// Give the computer player 200 ms to think about each move.
+		gameCntr.setMoveTimeBudget(200);
+		// In networked games, think about the opponent's reply while they do.
+		gameCntr.setPondering(true);
+		// Choose moves by Monte Carlo Tree Search when started with -Dconnect4.engine=mcts.
+		if ("mcts".equals(System.getProperty("connect4.engine"))) {
+			gameCntr.setMonteCarloSearch(new MonteCarloSearch(Runtime.getRuntime().availableProcessors(),
+					MonteCarloSearch.DEFAULT_MEMORY));
+		}
+		// Archive finished games when started with -Dconnect4.records=<file>.
+		String recordFile = System.getProperty("connect4.records");
+		GameRecordStore records = recordFile != null ? GameRecordStore.open(Paths.get(recordFile)) : null;
+		if (records != null) {
+			gameCntr.setGameRecordStore(records);
+		}
+		// Play solved endgames from a table when started with -Dconnect4.endgame=<file>.
+		String endgameFile = System.getProperty("connect4.endgame");
+		EndgameTable endgame = endgameFile != null ? EndgameTable.open(Paths.get(endgameFile)) : null;
+		gameCntr.setEndgameTable(endgame);
+		// Moves are collected off the JavaFX thread and painted once a frame.
+		updates = new MoveUpdateQueue(gameModel);
+		gameModel.addMoveListener(updates);
+		AnimationTimer painter = new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				applyUpdates();
+			}
+		};
+		stage.setOnHidden((eventHidden) -> {
+			painter.stop();
+			updates.close();
+			if (records != null) {
+				try {
+					records.close();
+				} catch (IOException e) {
+					System.err.println("Something went wrong saving the games! " + e.getMessage());
+				}
+			}
+			if (endgame != null) {
+				try {
+					endgame.close();
+				} catch (IOException e) {
+					System.err.println("Something went wrong closing the endgame table! " + e.getMessage());
+				}
+			}
+		});
 
 		//Calls the method to add and generate the menu.
 		addMenu(stage);
@@ -68,22 +124,34 @@ public class Connect4View extends Application implements Observer {
 		gameBoard.setBackground(new Background(new BackgroundFill(Color.BLUE, null, null)));
 		borderPane.setBackground(new Background(new BackgroundFill(Color.BLUE, null, null)));
 
-		// Add circles to gridpane
-		createCircles(gameBoard);
+		if ("canvas".equals(System.getProperty("connect4.renderer"))) {
+			boardCanvas = new Connect4BoardCanvas(gameModel);
+			boardCanvas.setOnColumnClicked((column) -> {
+				if (gameModel.getTurn() == true && isComp == false) {
+					gameCntr.humanTurn(column, 1);
+				}
+			});
+			boardView = boardCanvas;
+		} else {
+			// Add circles to gridpane
+			createCircles(gameBoard);
+			boardView = gameBoard;
+		}
 
-		// Add gameBoard to borderPane
-		borderPane.setCenter(gameBoard);
-		BorderPane.setMargin(gameBoard, new Insets(8, 8, 8, 8));
+		// Add the board to borderPane
+		borderPane.setCenter(boardView);
+		BorderPane.setMargin(boardView, new Insets(8, 8, 8, 8));
 
 		// Display scene
 		Scene scene = new Scene(borderPane);
 		stage.setScene(scene);
 		stage.setTitle("Connect 4");
 		stage.show();
+		painter.start();
 	}
 
 	/**
-	 * Creates the circles in the game board
+	 * Creates the circles in the game board and indexes them by column and row
 	 * 
 	 * @param pane GridPane from start
 	 */
@@ -93,6 +161,7 @@ public class Connect4View extends Application implements Observer {
 		pane.setVgap(8);
 
 		// Fill with circles
+		cells = new Circle[gameModel.getYLEN()][gameModel.getXLEN()];
 		for (int index = 0; index <= gameModel.getYLEN() - 1; index++) {
 			for (int innerIndex = 0; innerIndex <= gameModel.getXLEN() - 1; innerIndex++) {
 				Circle circ = new Circle(20);
@@ -111,6 +180,7 @@ public class Connect4View extends Application implements Observer {
 
 				});
 				pane.add(circ, index, innerIndex);
+				cells[index][innerIndex] = circ;
 			}
 		}
 	}
@@ -195,10 +265,11 @@ public class Connect4View extends Application implements Observer {
 			// Button event handlers
 			proceed.setOnMouseClicked((eventOK) -> {
 				network.close();
+				int port = Integer.parseInt(portField.getText().trim());
 				if (server.isSelected()) {
-					gameCntr.startServer(human.isSelected());
+					gameCntr.startServer(human.isSelected(), port);
 				} else {
-					gameCntr.startClient(human.isSelected());
+					gameCntr.startClient(human.isSelected(), serverField.getText().trim(), port);
 				}
 
 				if (human.isSelected()) {
@@ -228,92 +299,70 @@ public class Connect4View extends Application implements Observer {
 	}
 
 	/**
-	 * This update method will update the GUI for the Connect4Game. 
-	 * On each update it will determine if a connect 4 has been made. If so the game is halted and
-	 * a win message is displayed to the users.
+	 * This method will update the GUI for the Connect4Game once a frame. Every
+	 * move made since the last frame is painted, and once the queue reports the
+	 * game over the game is halted and a message is displayed to the users. The
+	 * win check itself has already been made off the JavaFX thread.
 	 */
-	@Override
-	public void update(Observable o, Object arg) {
-
-		if (gameCntr.getWinRecord() == false) {
-			Connect4MoveMessage message = (Connect4MoveMessage) arg;
-			int xPos = message.getRow();
-			int yPos = message.getColumn();
-			int intColor = message.getColor();
-			String colorStr = null;
-			Color color = null;
-			if (intColor == 1) {
-				color = Color.RED;
-				colorStr = "Red";
-			} else {
-				color = Color.YELLOW;
-				colorStr = "Yellow";
-			}
+	private void applyUpdates() {
+		int outcome = updates.drain(this::paintMove);
+		if (outcome != 0 && gameCntr.getWinRecord() == false) {
+			gameState(outcome, updates.getFinalMove().getColor());
+		}
+	}
 
+	/**
+	 * Paints the cell filled by one move.
+	 */
+	private void paintMove(Connect4MoveMessage message) {
+		int xPos = message.getRow();
+		int yPos = message.getColumn();
+		int intColor = message.getColor();
+		if (boardCanvas != null) {
+			boardCanvas.drawCell(yPos, xPos, intColor);
+		} else {
 			Circle targetCirc = getTargetNode(xPos, yPos);
-
-			// This is currently just testing that the update will correctly update the
-			// gameboard.
-			// This is not a final imp.
 			if (targetCirc != null) {
+				Color color = intColor == 1 ? Color.RED : Color.YELLOW;
 				targetCirc.setFill(color);
 				targetCirc.setStroke(color);
 			}
-			// Update will then check the gameState.
-
-			gameState(intColor, colorStr);
-
-		} else {
 		}
 	}
-	
+
 	/**
-	 * This method will be called by Update() to determine if the game is over.
-	 * The game is over if a player got a connect 4 or id the board is full. It will display
-	 * showAndWait() pop-ups on either event being true.
+	 * This method will be called by applyUpdates() once the game is over.
+	 * The game is over if a player got a connect 4 or if the board is full. It will display
+	 * a pop-up for either event. Dialogs can not wait during a frame, so the
+	 * pop-up is shown without blocking.
 	 */
-	private void gameState(int intColor, String colorStr) {
-
-		// Fairly computation heavy method, best to run minimally.
-		int didColorWinRet = gameCntr.didColorWin(intColor);
-
-		// This runs every update to check if 4 have connected.
-		if (didColorWinRet == intColor) {
-			Alert prompt = new Alert(Alert.AlertType.INFORMATION);
-
-			prompt.setTitle("Congrats " + colorStr);
-			gameBoard.setDisable(true);
-			prompt.setContentText(colorStr + " has Connected 4!");
-			prompt.setHeaderText(colorStr + " Won!");
-			gameCntr.setWinRecord(true);
-			prompt.showAndWait();
-		}
-		// This runs every update to check if 4 have connected.
-		if (didColorWinRet == 3) {
-			Alert prompt = new Alert(Alert.AlertType.INFORMATION);
-
+	private void gameState(int outcome, int intColor) {
+		String colorStr = intColor == 1 ? "Red" : "Yellow";
+		Alert prompt = new Alert(Alert.AlertType.INFORMATION);
+		boardView.setDisable(true);
+		gameCntr.setWinRecord(true);
+		if (outcome == 3) {
 			prompt.setTitle("Board Full " + colorStr);
-			gameBoard.setDisable(true);
 			prompt.setContentText("The board is full. No winner This time");
 			prompt.setHeaderText("Board Full");
-			gameCntr.setWinRecord(true);
-			prompt.showAndWait();
-
+		} else {
+			prompt.setTitle("Congrats " + colorStr);
+			prompt.setContentText(colorStr + " has Connected " + gameModel.getWinLength() + "!");
+			prompt.setHeaderText(colorStr + " Won!");
 		}
+		prompt.show();
 	}
 
 	/**
-	 * Searchs through each node in the gridpane and match the exach node updated in the model. 
+	 * Looks up the circle updated in the model by its column and row, rather
+	 * than searching the children of the gridpane.
 	 * The node will be passed back to update to be updated.
 	 */
 	private Circle getTargetNode(int x, int y) {
-		for (Node node : gameBoard.getChildren()) {
-			if (GridPane.getColumnIndex(node) == x && GridPane.getRowIndex(node) == y) {
-				// Cast as circle(there are only circles in the game board object)
-				return (Circle) node;
-			}
+		if (x < 0 || x >= cells.length || y < 0 || y >= cells[x].length) {
+			return null;
 		}
-		return null;
+		return cells[x][y];
 	}
 
 	/*
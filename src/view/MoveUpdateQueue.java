@@ -0,0 +1,130 @@
+package view;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import model.Connect4Model;
+import model.Connect4MoveMessage;
+import model.MoveListener;
+
+/**
+ * This Class sits between the model and the view so that a fast stream of moves
+ * does not flood the JavaFX thread. As a listener on the model it only hands
+ * each move to a referee thread and returns. The referee plays the move on its
+ * own copy of the board, checks the lines through it for a win or a full board
+ * and queues it for the view. The view drains the queue once per pulse, from an
+ * AnimationTimer, painting every move that arrived since the last frame and
+ * learning the outcome once the game is over. Moves after the end of a game are
+ * ignored.
+ * 
+ * @author Todd Noecker
+ */
+public class MoveUpdateQueue implements MoveListener {
+
+	private final Connect4Model board;
+	private final ExecutorService referee;
+	private final Queue<Connect4MoveMessage> pending = new ConcurrentLinkedQueue<>();
+	private volatile int outcome;
+	private volatile Connect4MoveMessage finalMove;
+	private long moves;
+	private long batches;
+
+	/**
+	 * Creates a queue for a model. It must be added as a listener of the model
+	 * before any more moves are made.
+	 * 
+	 * @param model the model the moves are made on
+	 */
+	public MoveUpdateQueue(Connect4Model model) {
+		this.board = model.copy();
+		this.referee = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "connect4-referee");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Passes a move to the referee thread. Called on whichever thread made the
+	 * move.
+	 */
+	@Override
+	public void moveMade(int x, int y, int color) {
+		// The same message the model used to send, with the column in getRow().
+		Connect4MoveMessage msg = new Connect4MoveMessage(y, x, color);
+		referee.execute(() -> judge(msg));
+	}
+
+	/*
+	 * Runs on the referee thread, one move at a time in the order they were made.
+	 */
+	private void judge(Connect4MoveMessage msg) {
+		if (outcome != 0) {
+			return;
+		}
+		board.move(msg.getRow(), msg.getColor());
+		int result = msg.getColor() == 0 ? 0 : board.checkForWin(msg.getColumn(), msg.getRow(), msg.getColor());
+		if (result == 0 && board.isBoardFull()) {
+			result = 3;
+		}
+		pending.add(msg);
+		if (result != 0) {
+			// Published after the move, so a drain that sees the outcome also gets
+			// the move that ended the game.
+			finalMove = msg;
+			outcome = result;
+		}
+	}
+
+	/**
+	 * Hands every move queued since the last call to the painter and returns the
+	 * outcome of the game. Called once per frame on the JavaFX thread.
+	 * 
+	 * @param painter paints one move
+	 * @return 0 while the game goes on, 1 or 2 for the winner, 3 for a full board
+	 */
+	public int drain(Consumer<Connect4MoveMessage> painter) {
+		int result = outcome;
+		Connect4MoveMessage msg = pending.poll();
+		if (msg == null) {
+			return result;
+		}
+		batches++;
+		for (; msg != null; msg = pending.poll()) {
+			painter.accept(msg);
+			moves++;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the move that ended the game, null while it goes on.
+	 */
+	public Connect4MoveMessage getFinalMove() {
+		return outcome != 0 ? finalMove : null;
+	}
+
+	/**
+	 * Returns the number of moves drained.
+	 */
+	public long getMovesDrained() {
+		return moves;
+	}
+
+	/**
+	 * Returns the number of drains that had moves to paint, at most one a frame.
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Stops the referee thread.
+	 */
+	public void close() {
+		referee.shutdown();
+	}
+}